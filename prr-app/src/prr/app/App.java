@@ -1,5 +1,7 @@
 package prr.app;
 
+import java.io.IOException;
+
 import prr.NetworkManager;
 import prr.exceptions.ImportFileException;
 import pt.tecnico.uilib.Dialog;
@@ -12,6 +14,7 @@ public class App {
 	public static void main(String[] args) {
 		try (var ui = Dialog.UI) {
 			var receiver = new NetworkManager();
+			receiver.setBackgroundSaves(true);
 
 			String datafile = System.getProperty("import");
 			if (datafile != null) {
@@ -24,6 +27,13 @@ public class App {
 			}
 
 			(new prr.app.main.Menu(receiver)).open();
+
+			try {
+				receiver.awaitSave();
+			} catch (IOException e) {
+				// no behavior described: just present the problem
+				e.printStackTrace();
+			}
 		}
 	}
 
@@ -23,7 +23,7 @@ class DoDisableClientNotifications extends Command<Network> {
 				_display.popup(Message.clientNotificationsAlreadyDisabled());
 			}
 			else{
-				_receiver.getClientByKey(stringField("key")).setNotificationsOn(false);
+				_receiver.setNotificationsOn(_receiver.getClientByKey(stringField("key")), false);
 			}
         } catch (prr.exceptions.UnknownClientKeyException e) {
             throw new UnknownClientKeyException(e.getKey());
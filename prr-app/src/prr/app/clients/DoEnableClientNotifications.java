@@ -23,7 +23,7 @@ class DoEnableClientNotifications extends Command<Network> {
 				_display.popup(Message.clientNotificationsAlreadyEnabled());
 			}
 			else{
-				_receiver.getClientByKey(stringField("key")).setNotificationsOn(true);
+				_receiver.setNotificationsOn(_receiver.getClientByKey(stringField("key")), true);
 			}
         } catch (prr.exceptions.UnknownClientKeyException e) {
             throw new UnknownClientKeyException(e.getKey());
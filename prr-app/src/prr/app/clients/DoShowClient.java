@@ -1,6 +1,7 @@
 package prr.app.clients;
 
 import prr.Network;
+import prr.clients.Client;
 import prr.app.exceptions.UnknownClientKeyException;
 import pt.tecnico.uilib.menus.Command;
 import pt.tecnico.uilib.menus.CommandException;
@@ -18,8 +19,9 @@ class DoShowClient extends Command<Network> {
 	@Override
 	protected final void execute() throws CommandException {
         try {
-            _display.popup(_receiver.getClientByKey(stringField("key")));
-			_display.popup(_receiver.getClientByKey(stringField("key")).getUnhandledNotification());
+            Client client = _receiver.getClientByKey(stringField("key"));
+            _display.popup(client);
+			_display.popup(_receiver.getUnhandledNotifications(client));
         } catch (prr.exceptions.UnknownClientKeyException e) {
             throw new UnknownClientKeyException(e.getKey());
         }
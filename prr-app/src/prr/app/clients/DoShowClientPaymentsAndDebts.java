@@ -1,5 +1,6 @@
 package prr.app.clients;
 
+import prr.Money;
 import prr.Network;
 import prr.app.exceptions.UnknownClientKeyException;
 import prr.clients.Client;
@@ -23,8 +24,8 @@ class DoShowClientPaymentsAndDebts extends Command<Network> {
 			Client c = _receiver.getClientByKey(stringField("key"));
 			_display.popup(Message.clientPaymentsAndDebts(
 				stringField("key"), 
-					(int) Math.round(c.getClientPaidBalance()), 
-						(int) Math.round(c.getClientDebtBalance())));
+					Money.round(c.getClientPaidBalance()), 
+						Money.round(c.getClientDebtBalance())));
 		} catch (prr.exceptions.UnknownClientKeyException e) {
 			throw new UnknownClientKeyException(stringField("key"));
 		}	
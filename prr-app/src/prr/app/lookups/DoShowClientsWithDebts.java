@@ -16,8 +16,6 @@ class DoShowClientsWithDebts extends Command<Network> {
 
 	@Override
 	protected final void execute() throws CommandException {
-		_receiver.getAllClients().stream()
-		                         .filter(c -> c.getClientDebtBalance() != 0)
-								 .forEach(_display::popup);
+		_receiver.getClientsWithDebts().forEach(_display::popup);
 	}
 }
@@ -16,8 +16,6 @@ class DoShowClientsWithoutDebts extends Command<Network> {
 
 	@Override
 	protected final void execute() throws CommandException {
-		_receiver.getAllClients().stream()
-		                         .filter(c -> c.getClientDebtBalance() == 0)
-								 .forEach(_display::popup);
+		_receiver.getClientsWithoutDebts().forEach(_display::popup);
 	}
 }
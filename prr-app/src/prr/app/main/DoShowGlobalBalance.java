@@ -1,5 +1,6 @@
 package prr.app.main;
 
+import prr.Money;
 import prr.Network;
 import pt.tecnico.uilib.menus.Command;
 import pt.tecnico.uilib.menus.CommandException;
@@ -16,7 +17,7 @@ class DoShowGlobalBalance extends Command<Network> {
 
 	@Override
 	protected final void execute() throws CommandException {
-		_display.popup((int) Math.round(_receiver.getGlobalBalance()));
+		_display.popup(Money.round(_receiver.getGlobalBalance()));
 
 	}
 }
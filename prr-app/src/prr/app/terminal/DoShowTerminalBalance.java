@@ -1,5 +1,6 @@
 package prr.app.terminal;
 
+import prr.Money;
 import prr.Network;
 import prr.app.exceptions.UnknownTerminalKeyException;
 import prr.terminals.Terminal;
@@ -19,7 +20,7 @@ class DoShowTerminalBalance extends TerminalCommand {
 	protected final void execute() throws CommandException {
 		_display.popup(
 			Message.terminalPaymentsAndDebts(_receiver.getKey(), 
-												(int) Math.round(_receiver.getPaidBalance()), 
-													(int) Math.round(_receiver.getDebtBalance())));
+												Money.round(_receiver.getPaidBalance()), 
+													Money.round(_receiver.getDebtBalance())));
 	}
 }
@@ -18,7 +18,7 @@ class DoTurnOnTerminal extends TerminalCommand {
 	@Override
 	protected final void execute() throws CommandException {
 		try {
-			_receiver.changeTerminalState(new OnTerminalState(), _network);
+			_receiver.changeTerminalState(OnTerminalState.INSTANCE, _network);
 		} catch (prr.exceptions.SameTerminalStateException e) {
 			_display.popup(Message.alreadyOn());
 		}
@@ -0,0 +1,129 @@
+package prr;
+
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import prr.clients.Client;
+
+/**
+ * The Clients of a Network, found by hashing their keys ignoring case.
+ * <p>
+ * Keys are normalized so keys equal ignoring case, as compared by
+ * {@link String#CASE_INSENSITIVE_ORDER}, have the same normal form. The
+ * Clients sorted by key are only needed to list them, so they are kept in an
+ * array brought up to date when next iterated: the Clients added since are
+ * sorted on their own and merged into it.
+ */
+final class ClientRegistry extends AbstractCollection<Client> {
+
+    /** Order of the Clients, by key ignoring case */
+    static final Comparator<Client> ORDER =
+                        Comparator.comparing(Client::getKey, String.CASE_INSENSITIVE_ORDER);
+
+    /** Clients by normalized key */
+    private final Map<String, Client> _clients = new HashMap<>();
+
+    /** Clients sorted by key, missing those added since */
+    private Client[] _sorted = new Client[0];
+
+    /** Clients added since the sorted array was brought up to date */
+    private final List<Client> _added = new ArrayList<>();
+
+    /**
+     * Normalizes a key, so keys equal ignoring case have the same normal
+     * form. Keys already normal are returned as they are.
+     *
+     * @param key the key
+     * @return the normalized key
+     */
+    static String normalize(String key) {
+        int i = 0;
+        while(i < key.length() && fold(key.charAt(i)) == key.charAt(i))
+            i++;
+        if(i == key.length())
+            return key;
+        char[] chars = key.toCharArray();
+        for(; i < chars.length; i++)
+            chars[i] = fold(chars[i]);
+        return new String(chars);
+    }
+
+    /** @return the character any character equal to it ignoring case folds to */
+    private static char fold(char c) {
+        if(c < 0x80)
+            return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * @param key the Client key, in any case
+     * @return the Client with the given key, or null if there is none
+     */
+    Client get(String key) {
+        return _clients.get(normalize(key));
+    }
+
+    /**
+     * @param key the Client key, in any case
+     * @return true if there is a Client with the given key
+     */
+    boolean containsKey(String key) {
+        return _clients.containsKey(normalize(key));
+    }
+
+    /**
+     * Adds a Client, replacing any other with the same key
+     *
+     * @param client the Client
+     */
+    void put(Client client) {
+        Client previous = _clients.put(normalize(client.getKey()), client);
+        if(previous != null) {
+            // rare, so start again from the map
+            _sorted = new Client[0];
+            _added.clear();
+            _added.addAll(_clients.values());
+        } else {
+            _added.add(client);
+        }
+    }
+
+    @Override
+    public int size() {
+        return _clients.size();
+    }
+
+    /**
+     * @return an iterator over the Clients, in key order ignoring case
+     */
+    @Override
+    public Iterator<Client> iterator() {
+        if(!_added.isEmpty())
+            merge();
+        return Arrays.asList(_sorted).iterator();
+    }
+
+    /**
+     * Sorts the Clients added since the last merge and merges them into the
+     * sorted array
+     */
+    private void merge() {
+        _added.sort(ORDER);
+        Client[] merged = new Client[_sorted.length + _added.size()];
+        int i = 0, j = 0, k = 0;
+        while(i < _sorted.length && j < _added.size())
+            merged[k++] = ORDER.compare(_sorted[i], _added.get(j)) <= 0 ? _sorted[i++] : _added.get(j++);
+        while(i < _sorted.length)
+            merged[k++] = _sorted[i++];
+        while(j < _added.size())
+            merged[k++] = _added.get(j++);
+        _sorted = merged;
+        _added.clear();
+    }
+}
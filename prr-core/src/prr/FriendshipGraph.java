@@ -0,0 +1,176 @@
+package prr;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import prr.terminals.Terminal;
+
+/**
+ * The friendships between the Terminals of a Network, indexed by friend so
+ * the Terminals that count a given Terminal as a friend are found at once.
+ * <p>
+ * Terminals are identified by the number of their 6-digit key. The edges
+ * are kept in compressed sparse rows: one row per befriended Terminal, with
+ * the sorted numbers of the Terminals that befriend it. Edges added or
+ * removed since the rows were built are kept apart, by befriended Terminal,
+ * with whether each edge now exists, so a query only reads the changes of
+ * its own row. Once the changes are many enough they are merged into new
+ * rows, which costs little for each change.
+ */
+final class FriendshipGraph {
+
+    /** Bits of an edge code holding the number of the befriending Terminal */
+    private static final int SOURCE_BITS = 20;
+
+    /** Mask of the number of the befriending Terminal in an edge code */
+    private static final long SOURCE_MASK = (1L << SOURCE_BITS) - 1;
+
+    /** Fewest changes merged into the rows */
+    private static final int MIN_CHANGES = 64;
+
+    /** Befriended Terminal of each row, sorted */
+    private int[] _rows = new int[0];
+
+    /** Start of each row in _sources, and the end of the last */
+    private int[] _offsets = { 0 };
+
+    /** Befriending Terminals of each row, sorted within the row */
+    private int[] _sources = new int[0];
+
+    /**
+     * Edges changed since the rows were built: by befriended Terminal, then
+     * by befriending Terminal, whether the edge exists
+     */
+    private final Map<Integer, Map<Integer, Boolean>> _changes = new HashMap<>();
+
+    /** Number of edges changed since the rows were built */
+    private int _changeCount;
+
+    /**
+     * Builds the graph from the friends of each Terminal
+     *
+     * @param terminals the Terminals
+     */
+    FriendshipGraph(Iterable<Terminal> terminals) {
+        int edges = 0;
+        for(Terminal t : terminals)
+            edges += t.getFriends().size();
+        long[] codes = new long[edges];
+        int n = 0;
+        for(Terminal t : terminals) {
+            int source = Terminal.keyNumber(t.getKey());
+            for(int target : t.getFriends().toNumbers())
+                codes[n++] = code(source, target);
+        }
+        Arrays.sort(codes);
+        build(codes, n);
+    }
+
+    /** @return the code of the edge from a befriending to a befriended Terminal */
+    private static long code(int source, int target) {
+        return (long) target << SOURCE_BITS | source;
+    }
+
+    /**
+     * Adds the edges from a Terminal to friends it did not have
+     *
+     * @param source number of the Terminal
+     * @param targets numbers of its new friends
+     */
+    void add(int source, int[] targets) {
+        for(int target : targets)
+            change(source, target, true);
+    }
+
+    /**
+     * Removes the edges from a Terminal to friends it had
+     *
+     * @param source number of the Terminal
+     * @param targets numbers of its former friends
+     */
+    void remove(int source, int[] targets) {
+        for(int target : targets)
+            change(source, target, false);
+    }
+
+    /**
+     * @param target number of a Terminal
+     * @return numbers of the Terminals that have it as a friend, sorted
+     */
+    int[] sources(int target) {
+        int row = Arrays.binarySearch(_rows, target);
+        int[] sources = row < 0 ? new int[0] :
+                            Arrays.copyOfRange(_sources, _offsets[row], _offsets[row + 1]);
+        Map<Integer, Boolean> changes = _changes.get(target);
+        if(changes == null)
+            return sources;
+        int n = sources.length;
+        for(Map.Entry<Integer, Boolean> change : changes.entrySet()) {
+            int source = change.getKey();
+            int at = Arrays.binarySearch(sources, 0, n, source);
+            if(change.getValue() && at < 0) {
+                if(n == sources.length)
+                    sources = Arrays.copyOf(sources, Math.max(4, n * 2));
+                at = -at - 1;
+                System.arraycopy(sources, at, sources, at + 1, n - at);
+                sources[at] = source;
+                n++;
+            } else if(!change.getValue() && at >= 0) {
+                System.arraycopy(sources, at + 1, sources, at, n - at - 1);
+                n--;
+            }
+        }
+        return n == sources.length ? sources : Arrays.copyOf(sources, n);
+    }
+
+    /** Records the state of an edge, merging the changes once many enough */
+    private void change(int source, int target, boolean exists) {
+        if(_changes.computeIfAbsent(target, t -> new HashMap<>()).put(source, exists) == null)
+            _changeCount++;
+        if(_changeCount >= Math.max(MIN_CHANGES, _sources.length / 8))
+            merge();
+    }
+
+    /** Builds new rows from the rows and the changes */
+    private void merge() {
+        long[] codes = new long[_sources.length + _changeCount];
+        int n = 0;
+        for(int row = 0; row < _rows.length; row++) {
+            Map<Integer, Boolean> changes = _changes.get(_rows[row]);
+            for(int i = _offsets[row]; i < _offsets[row + 1]; i++)
+                if(changes == null || changes.remove(_sources[i]) != Boolean.FALSE)
+                    codes[n++] = code(_sources[i], _rows[row]);
+        }
+        // the changes left are edges not in the rows
+        for(Map.Entry<Integer, Map<Integer, Boolean>> row : _changes.entrySet())
+            for(Map.Entry<Integer, Boolean> change : row.getValue().entrySet())
+                if(change.getValue())
+                    codes[n++] = code(change.getKey(), row.getKey());
+        Arrays.sort(codes, 0, n);
+        build(codes, n);
+        _changes.clear();
+        _changeCount = 0;
+    }
+
+    /** Builds the rows from sorted, distinct edge codes */
+    private void build(long[] codes, int n) {
+        int rows = 0;
+        for(int i = 0; i < n; i++)
+            if(i == 0 || codes[i] >>> SOURCE_BITS != codes[i - 1] >>> SOURCE_BITS)
+                rows++;
+        _rows = new int[rows];
+        _offsets = new int[rows + 1];
+        _sources = new int[n];
+        int row = -1;
+        for(int i = 0; i < n; i++) {
+            int target = (int) (codes[i] >>> SOURCE_BITS);
+            if(row < 0 || _rows[row] != target) {
+                _rows[++row] = target;
+                _offsets[row] = i;
+            }
+            _sources[i] = (int) (codes[i] & SOURCE_MASK);
+        }
+        _offsets[rows] = n;
+    }
+}
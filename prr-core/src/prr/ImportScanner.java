@@ -0,0 +1,192 @@
+package prr;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits a text input file into lines, and lines into fields separated by
+ * {@code '|'}, working directly on the bytes of the file, usually mapped in
+ * memory.
+ * <p>
+ * Lines end like in {@link java.io.BufferedReader#readLine()}, and fields
+ * are split like {@code String.split("\\|")}, so empty trailing fields are
+ * dropped. A field only becomes a String when it is asked for, so keywords
+ * and numbers are checked without creating any.
+ */
+final class ImportScanner {
+
+    /** Bytes of the file */
+    private final ByteBuffer _buffer;
+
+    /** Bytes of the field being decoded */
+    private byte[] _field = new byte[64];
+
+    /** Position of the next line, and end of the bytes to scan */
+    private int _position, _limit;
+
+    /** Start of the current line in the buffer */
+    private int _line;
+
+    /** Starts and ends of the fields of the current line */
+    private int[] _starts = new int[4], _ends = new int[4];
+
+    /** Number of fields in the current line */
+    private int _fields;
+
+    /**
+     * @param line a single line, already read
+     */
+    ImportScanner(String line) {
+        this(ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Scans whole lines of a file, which are never changed
+     *
+     * @param buffer the bytes of the lines, from its position to its limit
+     */
+    ImportScanner(ByteBuffer buffer) {
+        _buffer = buffer;
+        _position = buffer.position();
+        _limit = buffer.limit();
+    }
+
+    /**
+     * Moves to the next line
+     *
+     * @return false if there are no more lines
+     */
+    boolean nextLine() {
+        if(_position == _limit)
+            return false;
+        int end = _position;
+        while(end < _limit && _buffer.get(end) != '\n' && _buffer.get(end) != '\r')
+            end++;
+
+        split(_position, end);
+        _position = end;
+        if(_position < _limit && _buffer.get(_position++) == '\r'
+                && _position < _limit && _buffer.get(_position) == '\n')
+            _position++;
+        return true;
+    }
+
+    /** @return number of fields of the current line */
+    int fields() {
+        return _fields;
+    }
+
+    /** @return the i-th field of the current line */
+    String field(int i) {
+        return decode(_starts[i], _ends[i]);
+    }
+
+    /** @return the current line, without its dropped trailing fields */
+    String line() {
+        return decode(_line, _fields > 0 ? _ends[_fields - 1] : _line);
+    }
+
+    /**
+     * Compares a field with an ASCII keyword
+     *
+     * @param i the field
+     * @param keyword the keyword
+     * @return true if the field is the keyword
+     */
+    boolean fieldEquals(int i, String keyword) {
+        int start = _starts[i];
+        if(_ends[i] - start != keyword.length())
+            return false;
+        for(int k = 0; k < keyword.length(); k++)
+            if(_buffer.get(start + k) != keyword.charAt(k))
+                return false;
+        return true;
+    }
+
+    /**
+     * Parses a field as a decimal integer
+     *
+     * @param i the field
+     * @return the integer
+     * @throws NumberFormatException like {@link Integer#parseInt(String)}
+     */
+    int intField(int i) {
+        int k = _starts[i], end = _ends[i];
+        boolean negative = k < end && _buffer.get(k) == '-';
+        if(k < end && (negative || _buffer.get(k) == '+'))
+            k++;
+        // up to 9 digits never overflow, leave anything else to parseInt
+        if(k == end || end - k > 9)
+            return Integer.parseInt(field(i));
+        int value = 0;
+        for(; k < end; k++) {
+            int digit = _buffer.get(k) - '0';
+            if(digit < 0 || digit > 9)
+                return Integer.parseInt(field(i));
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Splits a field into items separated by {@code ','}, dropping empty
+     * trailing items like {@code String.split(",")}
+     *
+     * @param i the field
+     * @return the items
+     */
+    String[] items(int i) {
+        int start = _starts[i], end = _ends[i];
+        if(start == end)
+            return new String[] { "" };
+        while(end > start && _buffer.get(end - 1) == ',')
+            end--;
+        int n = end > start ? 1 : 0;
+        for(int k = start; k < end; k++)
+            if(_buffer.get(k) == ',')
+                n++;
+        String[] items = new String[n];
+        for(int k = 0, from = start; k < n; k++) {
+            int to = from;
+            while(to < end && _buffer.get(to) != ',')
+                to++;
+            items[k] = decode(from, to);
+            from = to + 1;
+        }
+        return items;
+    }
+
+    /**
+     * Finds the fields of a line, dropping empty trailing fields
+     */
+    private void split(int start, int end) {
+        _line = start;
+        _fields = 0;
+        int from = start;
+        for(int k = start; k <= end; k++) {
+            if(k == end || _buffer.get(k) == '|') {
+                if(_fields == _starts.length) {
+                    _starts = Arrays.copyOf(_starts, _fields * 2);
+                    _ends = Arrays.copyOf(_ends, _fields * 2);
+                }
+                _starts[_fields] = from;
+                _ends[_fields++] = k;
+                from = k + 1;
+            }
+        }
+        // a line without separators is a single field, even if empty
+        if(_fields == 1)
+            return;
+        while(_fields > 0 && _starts[_fields - 1] == _ends[_fields - 1])
+            _fields--;
+    }
+
+    private String decode(int start, int end) {
+        int length = end - start;
+        if(length > _field.length)
+            _field = new byte[Math.max(length, _field.length * 2)];
+        _buffer.get(start, _field, 0, length);
+        return new String(_field, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,461 @@
+package prr;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+import prr.exceptions.BadEntryException;
+import prr.exceptions.DuplicateClientKeyException;
+import prr.exceptions.DuplicateTerminalKeyException;
+import prr.exceptions.IllegalEntryException;
+import prr.exceptions.InvalidTerminalKeyException;
+import prr.exceptions.UnknownClientKeyException;
+import prr.exceptions.UnknownTerminalKeyException;
+import prr.exceptions.UnrecognizedEntryException;
+import prr.terminals.BusyTerminalState;
+import prr.terminals.OffTerminalState;
+import prr.terminals.OnTerminalState;
+import prr.terminals.SilentTerminalState;
+import prr.terminals.TerminalState;
+
+/**
+ * Imports the entities described in a text input file into a Network.
+ * <p>
+ * The import runs in phases on the common fork-join pool. The file is split
+ * into chunks of whole lines, which are mapped in memory and parsed in
+ * parallel into entries, so the file itself is never read into the heap. The
+ * entries are then checked in parallel, each as if every line before it was
+ * imported, to find the first line that fails. Finally, the entries before
+ * that line are registered: Clients, then Terminals, then the friends of
+ * each Terminal, in parallel per Terminal. The failing line is imported
+ * last, so the Network ends as if the file was imported line by line, and
+ * the same exception is thrown.
+ */
+final class Importer {
+
+    /** Minimum size of a chunk, so small files are parsed at once */
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    /** Maximum size of a chunk, so each chunk can be mapped on its own */
+    private static final long MAX_CHUNK_SIZE = 1 << 26;
+
+    /** Size of the window read to find the end of a chunk */
+    private static final int WINDOW_SIZE = 1 << 12;
+
+    /** Names of the Terminal states */
+    private static final String[] STATES = { "ON", "SILENCE", "BUSY", "OFF" };
+
+    /** Lines never reached, after every line of the file */
+    private static final int NONE = Integer.MAX_VALUE;
+
+    /** The Network the entities are imported into */
+    private final Network _network;
+
+    /** First line of each Client key, normalized to ignore case */
+    private final Map<String, Integer> _clientLines = new ConcurrentHashMap<>();
+
+    /** First line of each valid Terminal key */
+    private final Map<String, Integer> _terminalLines = new ConcurrentHashMap<>();
+
+    /** An entry of the input file */
+    private sealed interface Entry permits ClientEntry, TerminalEntry, FriendsEntry, Malformed {}
+
+    /** {@code CLIENT|key|name|taxID} */
+    private record ClientEntry(String key, String name, int taxId) implements Entry {}
+
+    /** {@code terminal-type|terminal-key|owner-key|state} */
+    private record TerminalEntry(String type, String key, String owner, String stateName,
+                                    TerminalState state) implements Entry {}
+
+    /** {@code FRIENDS|terminal-key|friend1-key,friend2-key...friendN-key} */
+    private record FriendsEntry(String key, String[] friends) implements Entry {}
+
+    /** A line that cannot be parsed, with the reason */
+    private record Malformed(Exception error) implements Entry {}
+
+    /** A part of the file, made of whole lines */
+    private final class Chunk {
+
+        /** Start and end of the chunk in the file */
+        private final long _start, _end;
+
+        /** Entries of the chunk, up to the first malformed line */
+        private final List<Entry> _entries = new ArrayList<>();
+
+        /** Number of the first line of the chunk in the file */
+        private int _line;
+
+        /** Position of the first entry that fails, or the number of entries */
+        private int _failure;
+
+        private Chunk(long start, long end) {
+            _start = start;
+            _end = end;
+        }
+
+        /**
+         * Maps the chunk and parses its lines, up to the first malformed one.
+         * The mapping is dropped once the chunk is parsed.
+         */
+        private void parse(FileChannel file) {
+            ImportScanner in;
+            try {
+                in = new ImportScanner(file.map(FileChannel.MapMode.READ_ONLY, _start, _end - _start));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            while(in.nextLine()) {
+                Entry e = Importer.parse(in);
+                _entries.add(e);
+                if(e instanceof Malformed)
+                    break;
+            }
+        }
+
+        /** Records the first line of each key */
+        private void index() {
+            for(int i = 0; i < _entries.size(); i++) {
+                Integer line = _line + i;
+                if(_entries.get(i) instanceof ClientEntry c)
+                    _clientLines.merge(ClientRegistry.normalize(c.key()), line, Math::min);
+                else if(_entries.get(i) instanceof TerminalEntry t && Network.isTerminalKey(t.key()))
+                    _terminalLines.merge(t.key(), line, Math::min);
+            }
+        }
+
+        /** Finds the first entry that fails */
+        private void check() {
+            _failure = 0;
+            while(_failure < _entries.size() && succeeds(_entries.get(_failure), _line + _failure))
+                _failure++;
+        }
+    }
+
+    /**
+     * @param network the Network the entities are imported into
+     */
+    Importer(Network network) {
+        _network = network;
+    }
+
+    /**
+     * Imports a text input file
+     *
+     * @param filename name of the text input file
+     *
+     * @throws UnrecognizedEntryException if a specified entity doesn't exist
+     *                                    or isn't recognized by the program
+     * @throws BadEntryException if entry doesn't provide the correct fields for
+     *                           an entity
+     * @throws IllegalEntryException if imported entity violates Network
+     *                               integrity constraints
+     * @throws IOException if the file cannot be read
+     */
+    void importFile(String filename) throws UnrecognizedEntryException,
+                                                BadEntryException,
+                                                    IllegalEntryException,
+                                                        IOException {
+        List<Chunk> chunks;
+        try (FileChannel file = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            chunks = split(file);
+            chunks.parallelStream().forEach(c -> c.parse(file));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        // entities are looked up concurrently, so read them all first
+        _network.loadAll();
+
+        int line = 0;
+        for(Chunk c : chunks) {
+            c._line = line;
+            line += c._entries.size();
+        }
+        chunks.parallelStream().forEach(Chunk::index);
+        chunks.parallelStream().forEach(Chunk::check);
+
+        // entries before the first failure
+        List<Entry> entries = new ArrayList<>();
+        Entry failed = null;
+        for(Chunk c : chunks) {
+            entries.addAll(c._entries.subList(0, c._failure));
+            if(c._failure < c._entries.size()) {
+                failed = c._entries.get(c._failure);
+                break;
+            }
+        }
+
+        for(Entry e : entries)
+            if(e instanceof ClientEntry)
+                apply(e);
+        for(Entry e : entries)
+            if(e instanceof TerminalEntry)
+                apply(e);
+        Map<String, List<Entry>> friends = new LinkedHashMap<>();
+        for(Entry e : entries)
+            if(e instanceof FriendsEntry f)
+                friends.computeIfAbsent(f.key(), k -> new ArrayList<>()).add(f);
+        friends.values().parallelStream().forEach(this::applyAll);
+
+        if(failed != null)
+            apply(failed);
+    }
+
+    /**
+     * Imports a single line
+     *
+     * @param line the line
+     *
+     * @throws UnrecognizedEntryException if a specified entity doesn't exist
+     *                                    or isn't recognized by the program
+     * @throws BadEntryException if entry doesn't provide the correct fields for
+     *                           an entity
+     * @throws IllegalEntryException if imported entity violates Network
+     *                               integrity constraints
+     */
+    void importLine(String line) throws UnrecognizedEntryException,
+                                            BadEntryException,
+                                                IllegalEntryException {
+        ImportScanner in = new ImportScanner(line);
+        if(!in.nextLine())
+            throw new UnrecognizedEntryException(line);
+        apply(parse(in));
+    }
+
+    /**
+     * Splits a file into chunks of whole lines, about one per thread of the
+     * pool, reading only around the ends of the chunks
+     */
+    private List<Chunk> split(FileChannel file) throws IOException {
+        long length = file.size();
+        long size = Math.min(MAX_CHUNK_SIZE,
+                        Math.max(MIN_CHUNK_SIZE, length / ForkJoinPool.getCommonPoolParallelism() + 1));
+        List<Chunk> chunks = new ArrayList<>();
+        ByteBuffer window = ByteBuffer.allocate(WINDOW_SIZE);
+        long start = 0;
+        while(start < length) {
+            long end = start + size;
+            end = end < length ? endOfLine(file, end - 1, length, window) : length;
+            chunks.add(new Chunk(start, end));
+            start = end;
+        }
+        return chunks;
+    }
+
+    /**
+     * Finds the end of the line going on at a position of a file, keeping
+     * "\r\n" together
+     *
+     * @return the position after the line terminator
+     */
+    private static long endOfLine(FileChannel file, long position, long length,
+                                    ByteBuffer window) throws IOException {
+        while(position < length) {
+            window.clear();
+            while(window.hasRemaining() && file.read(window, position + window.position()) > 0);
+            int n = window.position();
+            for(int i = 0; i < n; i++) {
+                byte b = window.get(i);
+                if(b == '\n')
+                    return position + i + 1;
+                if(b == '\r') {
+                    if(i + 1 < n) {
+                        if(window.get(i + 1) != '\n')
+                            return position + i + 1;
+                    } else if(position + i + 1 == length) {
+                        return length;
+                    } else if(i > 0) {
+                        // read the next window from the '\r'
+                        n = i;
+                    }
+                }
+            }
+            position += n;
+        }
+        return length;
+    }
+
+    /**
+     * Parses a line into an entry
+     *
+     * @param in the import file, at the line to be parsed
+     * @return the entry, or the reason why it is malformed
+     */
+    private static Entry parse(ImportScanner in) {
+        try {
+            if(in.fields() == 0)
+                throw new UnrecognizedEntryException(in.line());
+            if(in.fieldEquals(0, "CLIENT"))
+                return parseClient(in);
+            else if(in.fieldEquals(0, "BASIC"))
+                return parseTerminal(in, "BASIC");
+            else if(in.fieldEquals(0, "FANCY"))
+                return parseTerminal(in, "FANCY");
+            else if(in.fieldEquals(0, "FRIENDS"))
+                return parseFriends(in);
+            else
+                throw new UnrecognizedEntryException(in.field(0));
+        } catch (UnrecognizedEntryException | BadEntryException | NumberFormatException e) {
+            return new Malformed(e);
+        }
+    }
+
+    /**
+     * Parses a Client entity.
+     * <p>
+     * Format of Client entity input:
+     * {@code CLIENT|key|name|taxID}
+     *
+     * @throws BadEntryException if the entry doesn't have the correct number
+     *                           of fields for Client
+     */
+    private static Entry parseClient(ImportScanner in) throws BadEntryException {
+        // check for correct number of fields for Client
+        if(in.fields() != 4)
+            throw new BadEntryException(in.line());
+        return new ClientEntry(in.field(1), in.field(2), in.intField(3));
+    }
+
+    /**
+     * Parses a Terminal entity.
+     * <p>
+     * Format of Terminal entity input:
+     * {@code terminal-type|terminal-key|owner-key|state}
+     *
+     * @throws UnrecognizedEntryException if the state isn't recognized
+     * @throws BadEntryException if the entry doesn't have the correct number of
+     *                           fields for Terminal
+     */
+    private static Entry parseTerminal(ImportScanner in, String type) throws
+                                                UnrecognizedEntryException,
+                                                    BadEntryException {
+        // check entry is correct
+        if(in.fields() != 4)
+            throw new BadEntryException(in.line());
+
+        // determine the terminal state
+        for(String name : STATES) {
+            if(in.fieldEquals(3, name)) {
+                TerminalState state = switch(name) {
+                case "ON"      -> OnTerminalState.INSTANCE;
+                case "SILENCE" -> SilentTerminalState.INSTANCE;
+                case "BUSY"    -> BusyTerminalState.INSTANCE;
+                default        -> OffTerminalState.INSTANCE;
+                };
+                return new TerminalEntry(type, in.field(1), in.field(2), name, state);
+            }
+        }
+        throw new UnrecognizedEntryException(in.field(3));
+    }
+
+    /**
+     * Parses a list of Terminal's friends' keys
+     * <p>
+     * Entry format:
+     * {@code FRIENDS|terminal-key|friend1-key,friend2-key...friendN-key}
+     *
+     * @throws BadEntryException if entry doesn't have at least two fields
+     */
+    private static Entry parseFriends(ImportScanner in) throws BadEntryException {
+        // check entry is good
+        if(in.fields() < 3)
+            throw new BadEntryException(in.line());
+        return new FriendsEntry(in.field(1), in.items(2));
+    }
+
+    /**
+     * Checks whether an entry would be imported, if every line before it was
+     *
+     * @param e the entry
+     * @param line its line
+     * @return true if the entry would be imported without errors
+     */
+    private boolean succeeds(Entry e, int line) {
+        if(e instanceof ClientEntry c)
+            return _clientLines.get(ClientRegistry.normalize(c.key())) == line
+                    && !_network.hasClient(c.key());
+        if(e instanceof TerminalEntry t)
+            return Network.isTerminalKey(t.key())
+                    && _terminalLines.get(t.key()) == line && !_network.hasTerminal(t.key())
+                        && (_clientLines.getOrDefault(ClientRegistry.normalize(t.owner()), NONE) < line
+                            || _network.hasClient(t.owner()));
+        if(e instanceof FriendsEntry f) {
+            if(!hasTerminal(f.key(), line))
+                return false;
+            for(String s : f.friends())
+                if(!hasTerminal(s, line))
+                    return false;
+            return true;
+        }
+        return false;
+    }
+
+    /** @return true if the Terminal exists before the given line */
+    private boolean hasTerminal(String key, int line) {
+        return _terminalLines.getOrDefault(key, NONE) < line || _network.hasTerminal(key);
+    }
+
+    /**
+     * Imports an entry
+     *
+     * @throws UnrecognizedEntryException if a specified entity doesn't exist
+     *                                    or isn't recognized by the program
+     * @throws BadEntryException if entry doesn't provide the correct fields for
+     *                           an entity
+     * @throws IllegalEntryException if imported entity violates Network
+     *                               integrity constraints
+     */
+    private void apply(Entry e) throws UnrecognizedEntryException,
+                                        BadEntryException,
+                                            IllegalEntryException {
+        if(e instanceof ClientEntry c) {
+            try {
+                _network.registerClient(c.key(), c.name(), c.taxId());
+            } catch (DuplicateClientKeyException x) {
+                throw new IllegalEntryException(c.key());
+            }
+        } else if(e instanceof TerminalEntry t) {
+            try {
+                _network.registerTerminalFromImport(t.key(), t.type(), t.owner(), t.state());
+            } catch (InvalidTerminalKeyException
+                    | DuplicateTerminalKeyException
+                    | UnknownClientKeyException x) {
+                throw new IllegalEntryException(
+                            String.join("|", t.type(), t.key(), t.owner(), t.stateName()));
+            }
+        } else if(e instanceof FriendsEntry f) {
+            // add all friends to terminal
+            try {
+                _network.getTerminalByKey(f.key()).addFriends(f.friends(), _network);
+            } catch (UnknownTerminalKeyException x) {
+                throw new IllegalEntryException(x.getKey());
+            }
+        } else if(e instanceof Malformed m) {
+            if(m.error() instanceof UnrecognizedEntryException x)
+                throw x;
+            if(m.error() instanceof BadEntryException x)
+                throw x;
+            throw (RuntimeException) m.error();
+        }
+    }
+
+    /**
+     * Imports entries already checked, from a parallel phase
+     */
+    private void applyAll(List<Entry> entries) {
+        try {
+            for(Entry e : entries)
+                apply(e);
+        } catch (UnrecognizedEntryException | BadEntryException | IllegalEntryException x) {
+            throw new IllegalStateException("checked entry failed", x);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package prr;
+
+import java.util.AbstractCollection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import prr.communications.Communication;
+
+/**
+ * A read-only view of several lists of Communications, each in number
+ * order, as a single sequence in number order.
+ * <p>
+ * Iterating merges the lists lazily through a heap holding the next
+ * Communication of each list, so n Communications from k lists take
+ * O(n log k) without building a merged copy.
+ */
+final class MergedCommunications extends AbstractCollection<Communication> {
+
+    /** The lists, each in number order */
+    private final List<List<Communication>> _lists;
+
+    /** Next Communication of a list, ordered by number */
+    private static final class Cursor implements Comparable<Cursor> {
+        private final Iterator<Communication> _rest;
+        private Communication _head;
+
+        private Cursor(Iterator<Communication> list) {
+            _rest = list;
+            _head = list.next();
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            return _head.compareTo(other._head);
+        }
+    }
+
+    /**
+     * @param lists lists of Communications, each in number order
+     */
+    MergedCommunications(List<List<Communication>> lists) {
+        _lists = lists;
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for(List<Communication> l : _lists)
+            size += l.size();
+        return size;
+    }
+
+    /**
+     * @return an iterator over the Communications of every list, in number
+     *         order
+     */
+    @Override
+    public Iterator<Communication> iterator() {
+        PriorityQueue<Cursor> heads = new PriorityQueue<>(Math.max(1, _lists.size()));
+        for(List<Communication> l : _lists)
+            if(!l.isEmpty())
+                heads.add(new Cursor(l.iterator()));
+
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            @Override
+            public Communication next() {
+                Cursor c = heads.poll();
+                if(c == null)
+                    throw new NoSuchElementException();
+                Communication next = c._head;
+                if(c._rest.hasNext()) {
+                    c._head = c._rest.next();
+                    heads.add(c);
+                }
+                return next;
+            }
+        };
+    }
+}
@@ -0,0 +1,53 @@
+package prr;
+
+/**
+ * Amounts of money, held as a {@code long} number of cents.
+ * <p>
+ * Prices, balances and their sums are exact in cents, and adding them
+ * allocates nothing. Amounts are only rounded to whole units when shown.
+ */
+public final class Money {
+
+    /** Number of cents in a unit */
+    public static final long CENTS = 100;
+
+    private Money() {}
+
+    /**
+     * @param units a whole number of units
+     * @return the amount in cents
+     */
+    public static long units(long units) {
+        return units * CENTS;
+    }
+
+    /**
+     * Converts an amount in units, e.g. one kept as a double by an older
+     * version, into cents
+     *
+     * @param units the amount in units
+     * @return the amount in cents, rounded to the nearest cent
+     */
+    public static long fromUnits(double units) {
+        return Math.round(units * CENTS);
+    }
+
+    /**
+     * @param cents the amount in cents
+     * @return the amount in units, for an older version that keeps doubles
+     */
+    public static double toUnits(long cents) {
+        return (double) cents / CENTS;
+    }
+
+    /**
+     * Rounds an amount to the nearest whole unit, halves rounding up as
+     * {@link Math#round(double)} does
+     *
+     * @param cents the amount in cents
+     * @return the amount in whole units
+     */
+    public static int round(long cents) {
+        return (int) Math.floorDiv(cents + CENTS / 2, CENTS);
+    }
+}
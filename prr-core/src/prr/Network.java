@@ -1,24 +1,29 @@
 package prr;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
+import java.util.SortedSet;
 import java.util.TreeMap;
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import prr.clients.Client;
+import prr.clients.NotificationDispatcher;
 import prr.terminals.TerminalState;
 import prr.terminals.BasicTerminal;
-import prr.terminals.BusyTerminalState;
 import prr.terminals.FancyTerminal;
-import prr.terminals.OffTerminalState;
-import prr.terminals.OnTerminalState;
-import prr.terminals.SilentTerminalState;
 import prr.terminals.Terminal;
 import prr.communications.Communication;
 import prr.exceptions.BadEntryException;
@@ -29,10 +34,24 @@ import prr.exceptions.InvalidTerminalKeyException;
 import prr.exceptions.UnknownClientKeyException;
 import prr.exceptions.UnknownTerminalKeyException;
 import prr.exceptions.UnrecognizedEntryException;
+import prr.storage.ChangeSet;
+import prr.storage.Journal;
+import prr.storage.MappedSnapshot;
 
 /**
  * Class Network implements a Network of terminals that can
  * communicate with each other 
+ * <p>
+ * Terminals lock themselves while they change, so independent Terminals
+ * can communicate and pay from several threads at once. The state the
+ * Network keeps across Terminals (lookups, totals, indexes and changes)
+ * is only used holding the Network's monitor, and the collections it
+ * returns are copies, so they can be iterated while other threads change
+ * the Network. Operations that change the Network outside its monitor
+ * hold its operation lock, which a snapshot takes exclusively while the
+ * Network is captured. Locks are always taken in the order Terminals,
+ * Client operation lock, Network operation lock, Network, Client monitor,
+ * so threads never deadlock.
  */
 public class Network implements Serializable {
 
@@ -42,38 +61,246 @@ public class Network implements Serializable {
 	/** Signals if Network has dirty data */
 	private boolean _dirtyFlag = false;
 
-	/** Map containing Clients of this Network */
-	private Map<String, Client> _clients = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	/** Clients of this Network, by key */
+	private transient ClientRegistry _clients = new ClientRegistry();
+
+	/** Terminals of this Network, by key */
+	private transient TerminalRegistry _terminals = new TerminalRegistry();
+
+	/**
+	 * Serialized fields, where Clients and Terminals are still kept in maps
+	 * so files serialized before the registries can be read
+	 */
+	@Serial
+	private static final ObjectStreamField[] serialPersistentFields = {
+		new ObjectStreamField("_dirtyFlag", boolean.class),
+		new ObjectStreamField("_clients", Map.class),
+		new ObjectStreamField("_terminals", Map.class),
+		new ObjectStreamField("_nextCommunicationNumber", int.class),
+	};
+
+	/** Number of the next Communication, saved with the Network */
+	private transient AtomicInteger _nextCommunicationNumber = new AtomicInteger(1);
+
+	/** Journal where every operation on this Network is recorded */
+	private transient Journal _journal = Journal.DISABLED;
+
+	/** Snapshot holding the entities not yet read, null once all are read */
+	private transient MappedSnapshot _snapshot;
+
+	/** Communications of this Network by number, null until first needed */
+	private transient List<Communication> _communications;
+
+	/** Entities changed since the last snapshot or delta */
+	private transient ChangeSet _changes;
+
+	/** Sum of the balances of every Terminal, in cents */
+	private transient long _balance;
+
+	/**
+	 * Terminals that neither started nor received a Communication, null
+	 * until first needed
+	 */
+	private transient SortedSet<Terminal> _unusedTerminals;
+
+	/** Terminals whose paid balance exceeds their debt, null until first needed */
+	private transient SortedSet<Terminal> _positiveTerminals;
+
+	/** Clients with debts, and Clients without, null until first needed */
+	private transient SortedSet<Client> _clientsWithDebts, _clientsWithoutDebts;
+
+	/** Terminals indexed by the friends they have, null until first needed */
+	private transient FriendshipGraph _friendships;
+
+	/**
+	 * Held shared by the operations that change the Network outside its
+	 * monitor, and exclusively while a snapshot captures the Network
+	 */
+	private transient ReadWriteLock _operations = new ReentrantReadWriteLock();
 
-	/** Map containing Terminals of this Network */
-	private Map<String, Terminal> _terminals = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	/** Delivers the Notifications of the Clients of this Network */
+	private transient NotificationDispatcher _dispatcher = new NotificationDispatcher();
 
 	/**
 	 *
 	 * @return true if Network data is dirty
 	 */
-	public boolean isDirty() {
+	public synchronized boolean isDirty() {
 		return _dirtyFlag;
 	}
 
 	/**
-	 * Mark Network data as dirty
+	 * Mark Network data as dirty, without knowing which entities changed
      */
-	public void setDirty() { _dirtyFlag = true; }
+	public synchronized void setDirty() {
+		_dirtyFlag = true;
+		getChanges().setComplete();
+	}
+
+	/**
+	 * Mark Network data as dirty because of a change to a Client
+	 *
+	 * @param client the changed Client
+	 */
+	public synchronized void setDirty(Client client) {
+		_dirtyFlag = true;
+		getChanges().add(client);
+	}
+
+	/**
+	 * Mark Network data as dirty because of a change to a Terminal, which
+	 * may also reach its owner and observers
+	 *
+	 * @param terminal the changed Terminal
+	 */
+	public synchronized void setDirty(Terminal terminal) {
+		_dirtyFlag = true;
+		getChanges().add(terminal);
+	}
+
+	/**
+	 * Mark Network data as dirty because of a change to a Communication
+	 *
+	 * @param communication the changed Communication
+	 */
+	public synchronized void setDirty(Communication communication) {
+		_dirtyFlag = true;
+		getChanges().add(communication);
+	}
+
+	/**
+	 * @return the entities changed since the last snapshot or delta
+	 */
+	public synchronized ChangeSet getChanges() {
+		if(_changes == null)
+			_changes = new ChangeSet();
+		return _changes;
+	}
+
+	/**
+	 * Returns the entities changed so far and starts a new, empty, change set.
+	 * Called when the changes are written to a snapshot or delta.
+	 *
+	 * @return the entities changed since the last snapshot or delta
+	 */
+	public synchronized ChangeSet takeChanges() {
+		ChangeSet changes = getChanges();
+		_changes = new ChangeSet();
+		return changes;
+	}
 
 	/**
 	 * Mark Network data as clean
 	 */
-	public void setClean() { _dirtyFlag = false; }
+	public synchronized void setClean() { _dirtyFlag = false; }
+
+	/**
+	 * @return the lock held by the operations that change the Network
+	 *         outside its monitor, from the moment they are journaled until
+	 *         they are done, taken after the Client operation lock and never
+	 *         holding the Network's monitor
+	 */
+	public Lock getOperationLock() { return _operations.readLock(); }
+
+	/**
+	 * @return the lock that keeps every operation from changing the Network,
+	 *         held while a snapshot captures it
+	 */
+	public Lock getCaptureLock() { return _operations.writeLock(); }
+
+	/**
+	 * Returns the Journal where operations on this Network are recorded.
+	 * Every operation that changes the Network records itself here before
+	 * it is performed.
+	 *
+	 * @return the Journal of this Network, {@link Journal#DISABLED} if none
+	 */
+	public Journal getJournal() {
+		return _journal == null ? Journal.DISABLED : _journal;
+	}
+
+	/**
+	 * @param journal Journal where operations on this Network will be recorded
+	 */
+	public void setJournal(Journal journal) { _journal = journal; }
+
+	/**
+	 * Makes this Network read its entities from a snapshot as they are first
+	 * needed
+	 *
+	 * @param snapshot the mapped snapshot
+	 */
+	public void setSnapshot(MappedSnapshot snapshot) { _snapshot = snapshot; }
+
+	@Serial
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		loadAll();
+		Map<String, Client> clients = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for(Client c : _clients)
+			clients.put(c.getKey(), c);
+		Map<String, Terminal> terminals = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		for(Terminal t : _terminals)
+			terminals.put(t.getKey(), t);
+		ObjectOutputStream.PutField fields = out.putFields();
+		fields.put("_dirtyFlag", _dirtyFlag);
+		fields.put("_clients", clients);
+		fields.put("_terminals", terminals);
+		fields.put("_nextCommunicationNumber", _nextCommunicationNumber.get());
+		out.writeFields();
+	}
+
+	@Serial
+	@SuppressWarnings("unchecked")
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		ObjectInputStream.GetField fields = in.readFields();
+		_dirtyFlag = fields.get("_dirtyFlag", false);
+		_dispatcher = new NotificationDispatcher();
+		_clients = new ClientRegistry();
+		for(Client c : ((Map<String, Client>) fields.get("_clients", null)).values()) {
+			c.setNotificationDispatcher(_dispatcher);
+			_clients.put(c);
+		}
+		_terminals = new TerminalRegistry();
+		for(Terminal t : ((Map<String, Terminal>) fields.get("_terminals", null)).values())
+			_terminals.put(t);
+		for(Client c : _clients) {
+			c.restoreBalance();
+			_balance += c.getClientBalance();
+		}
+		// files serialized before numbers were saved continue after the last one
+		int next = fields.get("_nextCommunicationNumber", 0);
+		if(next == 0) {
+			next = 1;
+			for(Terminal t : _terminals)
+				for(Communication c : t.getStartedCommunications())
+					next = Math.max(next, c.getNumber() + 1);
+		}
+		_nextCommunicationNumber = new AtomicInteger(next);
+		_operations = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * Reads every entity still in the snapshot, before the whole Network is
+	 * used
+	 */
+	synchronized void loadAll() {
+		if(_snapshot != null) {
+			_snapshot.loadAll();
+			_snapshot = null;
+		}
+	}
 
     /**
      * Adds given Client to the Network
      *
      * @param client Client to be added to the Network
      */
-    public void addClient(Client client) {
-        _clients.put(client.getKey(), client);
-        setDirty();
+    public synchronized void addClient(Client client) {
+        client.setNotificationDispatcher(_dispatcher);
+        _clients.put(client);
+        if(_clientsWithoutDebts != null)
+            _clientsWithoutDebts.add(client);
+        setDirty(client);
     }
 
 
@@ -82,20 +309,169 @@ public class Network implements Serializable {
      *
      * @param Terminal to be added to the Network
      */
-    public void addTerminal(Terminal terminal) {
-        _terminals.put(terminal.getKey(), terminal);
+    public synchronized void addTerminal(Terminal terminal) {
+        putTerminal(terminal);
+        if(_unusedTerminals != null)
+            _unusedTerminals.add(terminal);
+        setDirty(terminal);
+    }
+
+    /**
+     * Adds a new Communication to the Network and to the lists of its
+     * Terminals, holding the locks of both Terminals. The lists only change
+     * holding the monitor too, so the indexes can be built from them.
+     *
+     * @param communication the new Communication
+     */
+    public synchronized void addCommunication(Communication communication) {
+        communication.getSender().getStartedCommunications().add(communication);
+        communication.getReciever().getReceivedCommunications().add(communication);
+        if(_communications != null) {
+            // numbers only grow, unless set back by a load
+            int n = _communications.size();
+            if(n == 0 || _communications.get(n - 1).compareTo(communication) < 0)
+                _communications.add(communication);
+            else
+                _communications.add(-Collections.binarySearch(_communications, communication) - 1,
+                                        communication);
+        }
+        if(_unusedTerminals != null) {
+            _unusedTerminals.remove(communication.getSender());
+            _unusedTerminals.remove(communication.getReciever());
+        }
+        setDirty(communication);
+    }
+
+    /**
+     * @return number that will be given to the next Communication
+     */
+    public int getNextCommunicationNumber() {
+        return _nextCommunicationNumber.get();
+    }
+
+    /**
+     * Sets the number that will be given to the next Communication, e.g.
+     * after a load
+     *
+     * @param number next communication number
+     */
+    public void setNextCommunicationNumber(int number) {
+        _nextCommunicationNumber.set(number);
+    }
+
+    /**
+     * Journals an operation that creates a Communication and gives the
+     * Communication its number. Numbers are taken in the order operations
+     * are journaled, so replaying the journal gives each Communication the
+     * same number again; without a journal they are taken with no lock.
+     *
+     * @param log journals the operation
+     * @return the number of the new Communication
+     */
+    public int newCommunicationNumber(Runnable log) {
+        Journal journal = getJournal();
+        if(journal == Journal.DISABLED) {
+            log.run();
+            return _nextCommunicationNumber.getAndIncrement();
+        }
+        synchronized(journal) {
+            log.run();
+            return _nextCommunicationNumber.getAndIncrement();
+        }
+    }
+
+    /**
+     * Adds a Client read from a snapshot, which does not change the Network
+     *
+     * @param client Client to be added to the Network
+     */
+    public synchronized void restoreClient(Client client) {
+        client.setNotificationDispatcher(_dispatcher);
+        _clients.put(client);
+        dropIndexes();
+    }
+
+    /**
+     * Adds a Terminal read from a snapshot, which does not change the Network
+     *
+     * @param terminal Terminal to be added to the Network
+     */
+    public synchronized void restoreTerminal(Terminal terminal) {
+        putTerminal(terminal);
+        dropIndexes();
+    }
+
+    /** Adds a Terminal to the Network and to its owner */
+    private synchronized void putTerminal(Terminal terminal) {
+        _terminals.put(terminal);
+        _balance += terminal.getPaidBalance() - terminal.getDebtBalance();
         // add this terminal to Client's list
         terminal.getOwner().addTerminal(terminal);
-        setDirty();
     }
 
-    public Double getGlobalBalance() {
-        Double sum = 0.0;
-        for(Client c : getAllClients()) {
-            sum += c.getClientPaidBalance() - c.getClientDebtBalance(); 
+    /**
+     * Forgets the lookup indexes, after entities were read with their
+     * Communications and balances. Called holding the monitor.
+     */
+    private void dropIndexes() {
+        _unusedTerminals = null;
+        _positiveTerminals = null;
+        _clientsWithDebts = null;
+        _clientsWithoutDebts = null;
+        _friendships = null;
+    }
+
+    /**
+     * Updates the friendship graph after a Terminal gained friends
+     *
+     * @param terminal the Terminal
+     * @param friends numbers of the keys of its new friends
+     */
+    public synchronized void friendsAdded(Terminal terminal, int[] friends) {
+        if(_friendships != null)
+            _friendships.add(Terminal.keyNumber(terminal.getKey()), friends);
+    }
+
+    /**
+     * Updates the friendship graph after a Terminal lost friends
+     *
+     * @param terminal the Terminal
+     * @param friends numbers of the keys of its former friends
+     */
+    public synchronized void friendsRemoved(Terminal terminal, int[] friends) {
+        if(_friendships != null)
+            _friendships.remove(Terminal.keyNumber(terminal.getKey()), friends);
+    }
+
+    /**
+     * Updates the global balance and the lookup indexes after the balances
+     * of a Terminal, and of its owner, changed
+     *
+     * @param terminal the Terminal
+     * @param amount amount added to the balance, in cents
+     */
+    public synchronized void balanceChanged(Terminal terminal, long amount) {
+        _balance += amount;
+        if(_positiveTerminals != null) {
+            if(terminal.getPaidBalance() > terminal.getDebtBalance())
+                _positiveTerminals.add(terminal);
+            else
+                _positiveTerminals.remove(terminal);
         }
+        if(_clientsWithDebts != null) {
+            Client owner = terminal.getOwner();
+            boolean debts = owner.getClientDebtBalance() != 0;
+            (debts ? _clientsWithDebts : _clientsWithoutDebts).add(owner);
+            (debts ? _clientsWithoutDebts : _clientsWithDebts).remove(owner);
+        }
+    }
 
-        return sum;
+    /**
+     * @return the balance of every Client, in cents
+     */
+    public synchronized long getGlobalBalance() {
+        loadAll();
+        return _balance;
     }
 
     /**********************
@@ -105,9 +481,12 @@ public class Network implements Serializable {
     /**
      * Returns a Collection with all Clients registered in the Network
      *
-     * @return Collection of all Clients
+     * @return copy of all Clients, sorted by key
      */
-	public Collection<Client> getAllClients() { return _clients.values(); }
+	public synchronized Collection<Client> getAllClients() {
+        loadAll();
+        return new ArrayList<>(_clients);
+    }
 
 
     /**
@@ -119,13 +498,23 @@ public class Network implements Serializable {
      * @throws UnknownClientKeyException if Client with specified key doesn't
      *                                   exist in the Network
      */
-    public Client getClientByKey(String key) throws UnknownClientKeyException {
+    public synchronized Client getClientByKey(String key) throws UnknownClientKeyException {
         Client c = _clients.get(key);
+        if(c == null && _snapshot != null)
+            c = _snapshot.getClient(key);
         if(c == null)
             throw new UnknownClientKeyException(key);
         return c;
     }
 
+    /**
+     * @param key Client's key
+     * @return true if a Client with given key exists, read or not
+     */
+    synchronized boolean hasClient(String key) {
+        return _clients.containsKey(key) || (_snapshot != null && _snapshot.getClient(key) != null);
+    }
+
     /**
      * Registers a Client into the Network with the specified attributes
      *
@@ -136,14 +525,57 @@ public class Network implements Serializable {
      * @throws DuplicateClientKeyException if a Client with given key already
      *                                     exists in the Network
      */
-	public void registerClient(String key, String name, Integer taxId) throws
+	public synchronized void registerClient(String key, String name, Integer taxId) throws
                                                 DuplicateClientKeyException {
+        getJournal().logRegisterClient(key, name, taxId);
         // check if Client with given key already exists
-		if(_clients.containsKey(key))
+		if(hasClient(key))
 			throw new DuplicateClientKeyException(key);
         addClient(new Client(key, name, taxId));
 	}
 
+    /**
+     * Turns a Client's notifications on or off
+     *
+     * @param client the Client
+     * @param notificationsOn true if the Client wishes to get notified
+     */
+    public void setNotificationsOn(Client client, boolean notificationsOn) {
+        synchronized(client.getOperationLock()) {
+            Lock operation = getOperationLock();
+            operation.lock();
+            try {
+                getJournal().logNotificationsOn(client.getKey(), notificationsOn);
+                client.setNotificationsOn(notificationsOn);
+                setDirty(client);
+            } finally {
+                operation.unlock();
+            }
+        }
+    }
+
+    /**
+     * Returns a Client's unhandled Notifications, which become handled
+     *
+     * @param client the Client
+     * @return the Client's Notifications that were not yet handled
+     */
+    public Collection<Client.Notification> getUnhandledNotifications(Client client) {
+        synchronized(client.getOperationLock()) {
+            Lock operation = getOperationLock();
+            operation.lock();
+            try {
+                getJournal().logNotificationsHandled(client.getKey());
+                Collection<Client.Notification> notifications = client.getUnhandledNotification();
+                if(!notifications.isEmpty())
+                    setDirty(client);
+                return notifications;
+            } finally {
+                operation.unlock();
+            }
+        }
+    }
+
     /**********************
      * TERMINALS 
      *********************/ 
@@ -151,9 +583,12 @@ public class Network implements Serializable {
     /**
      * Returns a Collection with all Terminals registered in the Network
      *
-     * @return Collection of all Terminals
+     * @return copy of all Terminals, sorted by key
      */
-    public Collection<Terminal> getAllTerminals() { return _terminals.values(); }
+    public synchronized Collection<Terminal> getAllTerminals() {
+        loadAll();
+        return new ArrayList<>(_terminals);
+    }
 
     /**
      * Returns Terminal with given key
@@ -164,13 +599,34 @@ public class Network implements Serializable {
      * @throws UnknownTerminalKeyException if Terminal with specified key doesn't
      *                                     exist in the Network
      */
-    public Terminal getTerminalByKey(String key) throws UnknownTerminalKeyException {
+    public synchronized Terminal getTerminalByKey(String key) throws UnknownTerminalKeyException {
         Terminal t = _terminals.get(key);
+        if(t == null && _snapshot != null)
+            t = _snapshot.getTerminal(key);
         if(t == null)
             throw new UnknownTerminalKeyException(key);
         return t;
     }
 
+    /**
+     * @param key Terminal's key
+     * @return true if a Terminal with given key exists, read or not
+     */
+    synchronized boolean hasTerminal(String key) {
+        return _terminals.containsKey(key)
+                    || (_snapshot != null && _snapshot.getTerminal(key) != null);
+    }
+
+    /**
+     * Checks if a key is a valid Terminal key, a string of exactly 6 digits
+     *
+     * @param key Terminal's key
+     * @return true if the key has exactly 6 digits
+     */
+    static boolean isTerminalKey(String key) {
+        return Terminal.keyNumber(key) >= 0;
+    }
+
     /**
      * Registers a Terminal in the Network with specified attributes
      *
@@ -185,16 +641,17 @@ public class Network implements Serializable {
      * @throws UnknownClientKeyException if a Client with given key doesn't exist
      *                                   in the Network
      */
-    public void registerTerminal(String terminalKey, String type, String ownerKey) throws
+    public synchronized void registerTerminal(String terminalKey, String type, String ownerKey) throws
                                                 InvalidTerminalKeyException,
                                                     DuplicateTerminalKeyException,
                                                         UnknownClientKeyException {
-        // check the key has only 6 digits (\d <=> [0,9] regex)
-        if(!terminalKey.matches("\\d{6}"))
+        getJournal().logRegisterTerminal(terminalKey, type, ownerKey, null);
+
+        if(!isTerminalKey(terminalKey))
             throw new InvalidTerminalKeyException(terminalKey);
 
         // check if Terminal with given key already exists
-        if(_terminals.containsKey(terminalKey))
+        if(hasTerminal(terminalKey))
             throw new DuplicateTerminalKeyException(terminalKey);
 
         // add Terminal to the Network
@@ -209,61 +666,142 @@ public class Network implements Serializable {
      *****************/
 
     /**
-     * 
-     * 
-     * @return Stream of Terminals that haven't started or received any
-     *         communications
-     */
-	public Collection<Terminal> getUnusedTerminals() {
-		List<Terminal> termAux = new ArrayList<>();
-		for(Terminal t : _terminals.values()){
-			if(t.getReceivedCommunications().size() == 0 &&
-					            t.getStartedCommunications().size() == 0 ){
-					termAux.add(t);
-			}
+     * Returns the Terminals that haven't started or received any
+     * Communications. They are found when first needed, and then kept up to
+     * date as Communications are created.
+     *
+     * @return copy of the unused Terminals, sorted by key
+     */
+	public synchronized Collection<Terminal> getUnusedTerminals() {
+		if(_unusedTerminals == null) {
+			loadAll();
+			_unusedTerminals = new TreeSet<>(TerminalRegistry.ORDER);
+			for(Terminal t : _terminals)
+				if(t.getReceivedCommunications().isEmpty() &&
+						t.getStartedCommunications().isEmpty())
+					_unusedTerminals.add(t);
 		}
-		return termAux;
+		return new ArrayList<>(_unusedTerminals);
 	}
 
-    public Collection<Terminal> getTerminalsWithPositiveBalance() {
-        List<Terminal> termAux = new ArrayList<>();
-        for(Terminal t : _terminals.values()) {
-            if(t.getPaidBalance() > t.getDebtBalance())
-                termAux.add(t);
+    /**
+     * Returns the Terminals whose paid balance exceeds their debt, kept up
+     * to date as balances change once first needed
+     *
+     * @return copy of the Terminals, sorted by key
+     */
+    public synchronized Collection<Terminal> getTerminalsWithPositiveBalance() {
+        if(_positiveTerminals == null) {
+            loadAll();
+            _positiveTerminals = new TreeSet<>(TerminalRegistry.ORDER);
+            for(Terminal t : _terminals)
+                if(t.getPaidBalance() > t.getDebtBalance())
+                    _positiveTerminals.add(t);
         }
-    return termAux;
+        return new ArrayList<>(_positiveTerminals);
     }
 
-    public Collection<Communication> getAllCommunications() {
-        List<Communication> comms = new ArrayList<>();
-        for(Client c : _clients.values()) {
-            for(Terminal t : c.getTerminals()) {
-                comms.addAll(t.getStartedCommunications());
-            }
-        }
-        Collections.sort(comms);
+    /**
+     * Returns the Clients with debts, kept up to date as balances change
+     * once first needed
+     *
+     * @return copy of the Clients, sorted by key
+     */
+    public synchronized Collection<Client> getClientsWithDebts() {
+        indexClientDebts();
+        return new ArrayList<>(_clientsWithDebts);
+    }
 
-        return comms;
+    /**
+     * Returns the Clients without debts, kept up to date as balances change
+     * once first needed
+     *
+     * @return copy of the Clients, sorted by key
+     */
+    public synchronized Collection<Client> getClientsWithoutDebts() {
+        indexClientDebts();
+        return new ArrayList<>(_clientsWithoutDebts);
     }
-    
-    public Collection<Communication> getCommunicationsStartedByClient(Client client) {
-        List<Communication> comms = new ArrayList<>();
-        for(Terminal t : client.getTerminals()) {
-            comms.addAll(t.getStartedCommunications());
+
+    /**
+     * Returns the Terminals that have the given Terminal as a friend. The
+     * friendships are indexed by friend when first needed, and then kept
+     * up to date as friends are added and removed.
+     *
+     * @param terminal the Terminal
+     * @return the Terminals, sorted by key
+     */
+    public synchronized List<Terminal> getTerminalsWithFriend(Terminal terminal) {
+        if(_friendships == null) {
+            loadAll();
+            _friendships = new FriendshipGraph(_terminals);
         }
-        Collections.sort(comms);
+        int[] sources = _friendships.sources(Terminal.keyNumber(terminal.getKey()));
+        List<Terminal> terminals = new ArrayList<>(sources.length);
+        for(int source : sources)
+            terminals.add(_terminals.get(source));
+        return terminals;
+    }
 
-        return comms;
+    /**
+     * Sorts the Clients by whether they have debts, if not yet done. Called
+     * holding the monitor.
+     */
+    private void indexClientDebts() {
+        if(_clientsWithDebts == null) {
+            loadAll();
+            _clientsWithDebts = new TreeSet<>(ClientRegistry.ORDER);
+            _clientsWithoutDebts = new TreeSet<>(ClientRegistry.ORDER);
+            for(Client c : _clients)
+                (c.getClientDebtBalance() != 0 ? _clientsWithDebts : _clientsWithoutDebts).add(c);
+        }
     }
 
-    public Collection<Communication> getCommunicationsReceivedByClient(Client client) {
-        List<Communication> comms = new ArrayList<>();
-        for(Terminal t : client.getTerminals()) {
-            comms.addAll(t.getReceivedCommunications());
+    /**
+     * Returns every Communication of the Network, in number order. The
+     * Communications are gathered from the Terminals when first needed, and
+     * then kept up to date as they are created.
+     *
+     * @return copy of all Communications, sorted by number
+     */
+    public synchronized Collection<Communication> getAllCommunications() {
+        if(_communications == null) {
+            loadAll();
+            List<Communication> comms = new ArrayList<>();
+            for(Terminal t : _terminals)
+                comms.addAll(t.getStartedCommunications());
+            Collections.sort(comms);
+            _communications = comms;
         }
-        Collections.sort(comms);
+        return new ArrayList<>(_communications);
+    }
+    
+    /**
+     * Returns the Communications started by a Client's Terminals, in number
+     * order, merged from the Terminals' lists
+     *
+     * @param client the Client
+     * @return copy of the Communications, sorted by number
+     */
+    public synchronized Collection<Communication> getCommunicationsStartedByClient(Client client) {
+        List<List<Communication>> lists = new ArrayList<>();
+        for(Terminal t : client.getTerminals())
+            lists.add(t.getStartedCommunications());
+        return new ArrayList<>(new MergedCommunications(lists));
+    }
 
-        return comms;
+    /**
+     * Returns the Communications received by a Client's Terminals, in number
+     * order, merged from the Terminals' lists
+     *
+     * @param client the Client
+     * @return copy of the Communications, sorted by number
+     */
+    public synchronized Collection<Communication> getCommunicationsReceivedByClient(Client client) {
+        List<List<Communication>> lists = new ArrayList<>();
+        for(Terminal t : client.getTerminals())
+            lists.add(t.getReceivedCommunications());
+        return new ArrayList<>(new MergedCommunications(lists));
     }
 
 
@@ -289,12 +827,7 @@ public class Network implements Serializable {
                                                     IllegalEntryException,
                                                         IOException {
 		try {
-			FileReader f = new FileReader(filename);
-			BufferedReader b = new BufferedReader(f);
-            String inputLine;
-            while((inputLine = b.readLine()) != null)
-                parseInputLine(inputLine);
-			b.close();
+            new Importer(this).importFile(filename);
 		} catch (IOException e) {
 			e.printStackTrace();;
 		}
@@ -317,128 +850,22 @@ public class Network implements Serializable {
                                                 UnrecognizedEntryException,
                                                     BadEntryException,
                                                         IllegalEntryException {
-		String[] fields = inputLine.split("\\|");
-        switch (fields[0]) {
-            case "CLIENT"         -> importClient(fields);
-            case "BASIC", "FANCY" -> importTerminal(fields);
-            case "FRIENDS"        -> importFriends(fields);
-            default ->
-               throw new UnrecognizedEntryException(fields[0]);
-        }
+        new Importer(this).importLine(inputLine);
 	}
 
 
-    /**
-     * Parses and imports a Client entity.
-     * <p>
-     * Format of Client entity input:
-     * {@code CLIENT|key|name|taxID}
-     *
-     * @param fields An array with each field required to import a Client
-     *
-     * @throws BadEntryException if the entry doesn't have the correct number
-     *                           of fields for Client
-     * @throws IllegalEntryException if Client key is duplicate
-     */
-    public void importClient(String[] fields) throws BadEntryException,
-                                            IllegalEntryException {
-        // check for correct number of fields for Client
-        if(fields.length != 4)
-            throw new BadEntryException(String.join("|", fields));
-
-        try {
-            registerClient(fields[1], fields[2], Integer.parseInt(fields[3]));
-        } catch (DuplicateClientKeyException e) {
-            throw new IllegalEntryException(fields[1]);
-        }
-    }
-
-
-    /**
-     * Parses and imports a Terminal entity.
-     * <p>
-     * Format of Terminal entity input:
-     * {@code terminal-type|terminal-key|owner-key|state}
-     *
-     * @param fields An array with each field required to import a Terminal
-     *
-     * @throws UnrecognizedEntryException if a specified entity doesn't exist
-     *                                    or isn't recognized by the program
-     * @throws BadEntryException if the entry doesn't have the correct number of
-     *                           fields for Terminal
-     * @throws IllegalEntryException if entry has a field that does not respect
-     *                               the Network's integrity constraints
-     */
-    public void importTerminal(String[] fields) throws
-                                            UnrecognizedEntryException,
-                                                BadEntryException,
-                                                    IllegalEntryException {
-        // check entry is correct
-        if(fields.length != 4)
-            throw new BadEntryException(String.join("|", fields));
-
-        // determine the terminal state
-        TerminalState state = switch(fields[3]) {
-        case "ON"     -> new OnTerminalState();
-        case "SILENCE" -> new SilentTerminalState();
-        case "BUSY"   -> new BusyTerminalState();
-        case "OFF"    -> new OffTerminalState();
-        default ->
-            throw new UnrecognizedEntryException(fields[3]);
-        };
-
-        try {
-            registerTerminalFromImport(fields[1], fields[0], fields[2], state);
-        } catch (InvalidTerminalKeyException
-                | DuplicateTerminalKeyException
-                | UnknownClientKeyException e) {
-            throw new IllegalEntryException(String.join("|", fields));
-        }
-    }
-
-
-    /**
-     * Parses and imports a list of Terminal's friends' keys
-     * <p>
-     * Entry format:
-     * {@code FRIENDS|terminal-key|friend1-key,friend2-key...friendN-key}
-     *
-     * @param fields An array with each field required to import
-     *               Terminal's friends
-     *
-     * @throws BadEntryException if entry doesn't have at least two fields
-     * @throws IllegalEntryException if the key of the Terminal or any of its
-     *                               friends doesn't exist
-     */
-    public void importFriends(String[] fields) throws BadEntryException,
-                                                    IllegalEntryException {
-        // check entry is good
-        if(fields.length < 3)
-            throw new BadEntryException(String.join("|", fields));
-
-        String[] friends = fields[2].split(",");
-        // add all friends to terminal
-        try {
-            Terminal t = getTerminalByKey(fields[1]);
-            for(String s : friends)
-                t.addFriend(s, this);
-        } catch (UnknownTerminalKeyException e) {
-            throw new IllegalEntryException(e.getKey());
-        }
-    }
-
-
-    public void registerTerminalFromImport(String terminalKey, String type, String ownerKey, 
-                                                TerminalState state) throws
+    public synchronized void registerTerminalFromImport(String terminalKey, String type,
+                                                String ownerKey, TerminalState state) throws
                                                     InvalidTerminalKeyException,
                                                         DuplicateTerminalKeyException,
                                                             UnknownClientKeyException {
-        // check the key has only 6 digits (\d <=> [0,9] regex)
-        if(!terminalKey.matches("\\d{6}"))
+        getJournal().logRegisterTerminal(terminalKey, type, ownerKey, state);
+
+        if(!isTerminalKey(terminalKey))
             throw new InvalidTerminalKeyException(terminalKey);
 
         // check if Terminal with given key already exists
-        if(_terminals.containsKey(terminalKey))
+        if(hasTerminal(terminalKey))
             throw new DuplicateTerminalKeyException(terminalKey);
 
         // add Terminal to the Network
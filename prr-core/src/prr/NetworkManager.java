@@ -1,13 +1,17 @@
 package prr;
 
-import java.io.BufferedOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
 
 import prr.exceptions.BadEntryException;
 import prr.exceptions.IllegalEntryException;
@@ -15,6 +19,14 @@ import prr.exceptions.ImportFileException;
 import prr.exceptions.MissingFileAssociationException;
 import prr.exceptions.UnavailableFileException;
 import prr.exceptions.UnrecognizedEntryException;
+import prr.storage.ChangeSet;
+import prr.storage.Deltas;
+import prr.storage.Journal;
+import prr.storage.SnapshotCompactor;
+import prr.storage.SnapshotImage;
+import prr.storage.SnapshotListener;
+import prr.storage.SnapshotReader;
+import prr.storage.SnapshotWriter;
 
 /**
  * Manage access to network and implement load/save operations.
@@ -27,6 +39,42 @@ public class NetworkManager {
 	/** The name of the file associated with current Network instance */
 	private String _filename = "";
 
+	/** Journal size, in bytes, that triggers a new delta or snapshot */
+	private static final long MIN_CHECKPOINT_SIZE = 1 << 20;
+
+	/** Number of deltas that triggers a compaction */
+	private static final int MAX_DELTAS = 8;
+
+	/** Size of the last snapshot written or read */
+	private volatile long _snapshotSize;
+
+	/** Whether the snapshot of the current file is indexed, and can take deltas */
+	private volatile boolean _indexed;
+
+	/** Number of deltas written after the snapshot of the current file */
+	private volatile int _deltaCount;
+
+	/** Size of the deltas written after the snapshot of the current file */
+	private volatile long _deltaSize;
+
+	/** Whether snapshots are written by a background thread */
+	private boolean _backgroundSaves;
+
+	/** Receives the progress of snapshots */
+	private SnapshotListener _snapshotListener = SnapshotListener.NONE;
+
+	/** Thread writing snapshots in the background, created on demand */
+	private ExecutorService _saver;
+
+	/** Snapshot being written in the background, if any */
+	private Future<?> _pendingSave;
+
+	/** Journal the pending snapshot will rebase */
+	private Journal _pendingJournal;
+
+	/** Whether the pending journal was started by the pending snapshot */
+	private boolean _pendingJournalIsNew;
+
 	/**
 	 * 
 	 * @return the current network instance
@@ -36,25 +84,85 @@ public class NetworkManager {
 	}
 
 	/**
+	 * Chooses whether snapshots are written by a background thread. When they
+	 * are, {@link #save()} only captures the network, which keeps changing
+	 * while the snapshot is written.
+	 *
+	 * @param background true to write snapshots in the background
+	 */
+	public void setBackgroundSaves(boolean background) {
+		_backgroundSaves = background;
+	}
+
+	/**
+	 * @param listener receives the progress of the snapshots written
+	 */
+	public void setSnapshotListener(SnapshotListener listener) {
+		_snapshotListener = listener == null ? SnapshotListener.NONE : listener;
+	}
+
+	/**
+	 * Waits for the snapshot being written in the background, if any.
+	 *
+	 * @throws IOException if the snapshot could not be written. The network is
+	 *                     then marked as changed, so the next save tries again.
+	 */
+	public void awaitSave() throws IOException {
+		IOException failure = finishPendingSave();
+		if(failure != null)
+			throw failure;
+	}
+
+	/**
+	 * Loads a Network from a binary snapshot and replays the operations
+	 * recorded in its journal after that snapshot. Files written with Java
+	 * serialization by older versions are still accepted.
+	 *
 	 * @param filename name of the file containing the serialized application's state
      *                 to load.
 	 * @throws UnavailableFileException if the specified file does not exist or there is
      *                                  an error while processing this file.
 	 */
 	public void load(String filename) throws UnavailableFileException {
+		// a failed pending save no longer matters
+		finishPendingSave();
+		Network network;
 		try {
-			FileInputStream f = new FileInputStream(filename);
-			ObjectInputStream o = new ObjectInputStream(f);
-			_network = (Network) o.readObject();
-			o.close();
+			if(SnapshotReader.isSnapshot(filename)) {
+				SnapshotReader reader = new SnapshotReader();
+				network = reader.read(filename);
+				network.setJournal(Journal.recover(journalName(filename),
+													network, reader.getSequence()));
+				_snapshotSize = Files.size(Path.of(filename));
+				_indexed = reader.isIndexed();
+				_deltaCount = reader.getDeltaCount();
+				_deltaSize = reader.getDeltaSize();
+			} else {
+				FileInputStream f = new FileInputStream(filename);
+				ObjectInputStream o = new ObjectInputStream(f);
+				network = (Network) o.readObject();
+				o.close();
+				_indexed = false;
+			}
 		} catch(IOException | ClassNotFoundException e) {
 			throw new UnavailableFileException(filename);
 		}
+		closeJournal();
+		_network = network;
 		_filename = filename;
 	}
 
 	/**
-     * Saves the serialized application's state into the file associated to the current network.
+     * Saves the application's state into the file associated to the current network.
+     * <p>
+     * Usually this only commits the operations recorded in the journal since the last
+     * save and records the save in the journal, so its cost depends on what changed.
+     * Once the journal grows, a delta with the records of the entities changed since
+     * the last snapshot or delta is written next to the snapshot, and the journal
+     * restarted; deltas are merged into the snapshot by a background compaction. A
+     * whole snapshot is only written when there is none yet or when the changes are
+     * not known entity by entity. With background saves enabled, the snapshot or delta
+     * is only captured here and written to disk by another thread.
      *
 	 * @throws FileNotFoundException if for some reason the file cannot be created or opened. 
 	 * @throws MissingFileAssociationException if the current network does not have a file.
@@ -65,16 +173,253 @@ public class NetworkManager {
 		if(_filename == null || _filename.isBlank())
 			throw new MissingFileAssociationException();
 
-		// write Network object to file
 		if(_network.isDirty()) {
-			FileOutputStream f = new FileOutputStream(_filename);
-			BufferedOutputStream b = new BufferedOutputStream(f);
-			ObjectOutput o = new ObjectOutputStream(b);
-			o.writeObject(_network);
-			o.close();
-			// after save, Network data is not dirty
-			_network.setClean();
+			Journal journal = _network.getJournal();
+			if(journal == Journal.DISABLED) {
+				checkpoint(false);
+			} else if(journal.size() > MIN_CHECKPOINT_SIZE) {
+				checkpoint(_indexed);
+			} else {
+				// cleaned first, so changes journaled after the save mark it dirty again
+				_network.setClean();
+				journal.save();
+			}
+		}
+	}
+
+	/**
+	 * Writes a snapshot, or a delta, of the current network and restarts its journal.
+	 * <p>
+	 * The network is first encoded in memory, which is all the caller waits for
+	 * in background mode. Operations wait while it is, and the journal is marked
+	 * in the same step, so every operation is either in the capture or after the
+	 * mark. The snapshot then replaces the file atomically, or the
+	 * delta is atomically added next to it, and the journal is rebased to the
+	 * operations recorded after the capture, so a crash at any point leaves either
+	 * the previous files or the new ones. A network without a journal gets one under
+	 * a temporary name, which only takes the place of any previous journal once the
+	 * snapshot is written. Its snapshot is numbered after the journal and deltas the
+	 * file had before, so those are never replayed over it, even before they are
+	 * replaced or deleted.
+	 *
+	 * @param allowDelta true to write only the entities changed since the last
+	 *                   snapshot or delta, when they are known
+	 * @throws IOException if there is some error while writing the snapshot or the journal
+	 */
+	private void checkpoint(boolean allowDelta) throws IOException {
+		// only one snapshot at a time, a failed one is simply written again
+		finishPendingSave();
+
+		Journal journal = _network.getJournal();
+		boolean newJournal = journal == Journal.DISABLED;
+		// read before any operation is paused, as it reads the files
+		long last = newJournal ? lastSequence(_filename) : 0;
+		boolean delta;
+		SnapshotImage image;
+		long mark;
+		Lock capture = _network.getCaptureLock();
+		capture.lock();
+		try {
+			synchronized(_network) {
+				synchronized(journal) {
+					SnapshotWriter writer = new SnapshotWriter(_network,
+													Math.max(journal.getSequence(), last));
+					ChangeSet changes = _network.takeChanges();
+					delta = allowDelta && !changes.isComplete();
+					image = delta ? writer.captureDelta(changes) : writer.capture();
+					if(newJournal) {
+						journal = Journal.create(journalName(_filename) + ".new",
+													image.getSequence());
+						_network.setJournal(journal);
+					}
+					mark = journal.mark();
+					// changes after the capture mark the network dirty again
+					_network.setClean();
+				}
+			}
+		} finally {
+			capture.unlock();
+		}
+
+		String filename = _filename;
+		Journal captured = journal;
+		_pendingJournal = journal;
+		_pendingJournalIsNew = newJournal;
+		if(_backgroundSaves) {
+			_pendingSave = saver().submit(() -> {
+				writeCheckpoint(image, captured, mark, delta, filename);
+				compactIfNeeded(filename);
+				return null;
+			});
+		} else {
+			try {
+				writeCheckpoint(image, captured, mark, delta, filename);
+				_pendingJournal = null;
+			} catch (IOException e) {
+				recoverFromFailedSave();
+				throw e;
+			}
+			// compactions are always left to the background
+			if(needsCompaction())
+				_pendingSave = saver().submit(() -> {
+					compactIfNeeded(filename);
+					return null;
+				});
+		}
+	}
+
+	/**
+	 * @return the thread writing snapshots in the background, created on demand
+	 */
+	private ExecutorService saver() {
+		if(_saver == null)
+			_saver = Executors.newSingleThreadExecutor(r -> {
+				Thread t = new Thread(r, "network-saver");
+				t.setDaemon(true);
+				return t;
+			});
+		return _saver;
+	}
+
+	/**
+	 * @param filename name of a snapshot file
+	 * @return the last sequence number of the journal and deltas the file has
+	 * @throws IOException if the journal or the deltas cannot be read
+	 */
+	private static long lastSequence(String filename) throws IOException {
+		long sequence = Journal.lastSequence(journalName(filename));
+		for(Path p : Deltas.list(filename))
+			sequence = Math.max(sequence, Deltas.sequence(p));
+		return sequence;
+	}
+
+	/**
+	 * Writes a captured snapshot or delta and rebases its journal. Runs in the
+	 * background thread when background saves are enabled.
+	 */
+	private void writeCheckpoint(SnapshotImage image, Journal journal, long mark,
+									boolean delta, String filename) throws IOException {
+		String target = delta ? Deltas.name(filename, image.getSequence()) : filename;
+		try {
+			image.writeTo(target, _snapshotListener);
+			// only now the previous journal is replaced, and the merged deltas deleted
+			journal.rebase(mark, journalName(filename));
+			if(!delta)
+				Deltas.deleteMerged(filename, image.getSequence());
+		} catch (IOException e) {
+			_snapshotListener.snapshotFailed(target, e);
+			throw e;
+		}
+		if(delta) {
+			_deltaCount++;
+			_deltaSize += image.size();
+		} else {
+			_snapshotSize = image.size();
+			_indexed = image.size() <= Integer.MAX_VALUE;
+			_deltaCount = 0;
+			_deltaSize = 0;
+		}
+		_snapshotListener.snapshotCompleted(target, image.size());
+	}
+
+	/**
+	 * @return true when the deltas are too many, or too large, to be kept apart
+	 *         from the snapshot
+	 */
+	private boolean needsCompaction() {
+		return _deltaCount >= MAX_DELTAS || _deltaSize > _snapshotSize / 2;
+	}
+
+	/**
+	 * Merges the deltas into the snapshot, if needed. Runs in the background
+	 * thread; a failed compaction leaves the snapshot and its deltas as they were.
+	 */
+	private void compactIfNeeded(String filename) {
+		if(!needsCompaction())
+			return;
+		try {
+			long size = new SnapshotCompactor(filename).compact(_snapshotListener);
+			if(size >= 0) {
+				_snapshotSize = size;
+				_deltaCount = 0;
+				_deltaSize = 0;
+				_snapshotListener.snapshotCompleted(filename, size);
+			}
+		} catch (IOException e) {
+			_snapshotListener.snapshotFailed(filename, e);
+		}
+	}
+
+	/**
+	 * Waits for the snapshot being written in the background, if any.
+	 *
+	 * @return the error that made the snapshot fail, or null
+	 */
+	private IOException finishPendingSave() {
+		if(_pendingSave == null)
+			return null;
+		Future<?> pending = _pendingSave;
+		_pendingSave = null;
+		try {
+			pending.get();
+			_pendingJournal = null;
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			recoverFromFailedSave();
+			return new InterruptedIOException("interrupted while saving");
+		} catch (ExecutionException e) {
+			recoverFromFailedSave();
+			return e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Restores a consistent state after a snapshot failed: the previous snapshot
+	 * and journal are still in place, and the network is marked as changed so the
+	 * next save writes a new snapshot.
+	 */
+	private void recoverFromFailedSave() {
+		Journal journal = _pendingJournal;
+		_pendingJournal = null;
+		if(journal == null || journal != _network.getJournal())
+			return;
+		if(_pendingJournalIsNew) {
+			closeJournal();
+			try {
+				Files.deleteIfExists(Path.of(journalName(_filename) + ".new"));
+			} catch (IOException e) {
+				// an orphan journal is never read
+			}
+		} else {
+			try {
+				journal.commit();
+			} catch (IOException e) {
+				// operations after the last save are not guaranteed
+			}
+		}
+		_network.setDirty();
+	}
+
+	/**
+	 * Closes the journal of the current network, if it has one. The operations
+	 * recorded after the last save are discarded along with the network.
+	 */
+	private void closeJournal() {
+		try {
+			_network.getJournal().close();
+		} catch (IOException e) {
+			// operations after the last save are not guaranteed
 		}
+		_network.setJournal(Journal.DISABLED);
+	}
+
+	/**
+	 * @param filename name of a snapshot file
+	 * @return name of the journal that goes with the snapshot
+	 */
+	private static String journalName(String filename) {
+		return filename + ".journal";
 	}
 
 	/**
@@ -93,6 +438,11 @@ public class NetworkManager {
 	public void saveAs(String filename) throws FileNotFoundException,
 													MissingFileAssociationException,
 														IOException {
+		// the journal belongs to the previous file
+		if(!filename.equals(_filename)) {
+			finishPendingSave();
+			closeJournal();
+		}
 		_filename = filename;
 		save();
 	}
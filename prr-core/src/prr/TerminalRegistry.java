@@ -0,0 +1,119 @@
+package prr;
+
+import java.util.AbstractCollection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import prr.terminals.Terminal;
+
+/**
+ * The Terminals of a Network, addressed directly by their key.
+ * <p>
+ * Terminal keys are exactly 6 digits, so each key is read as a number in
+ * 0..999999 and used as an index into pages of 1000 Terminals, allocated
+ * as they are first needed. Lookups take no String comparisons, and
+ * iteration follows key order.
+ */
+final class TerminalRegistry extends AbstractCollection<Terminal> {
+
+    /** Order of the Terminals, by key */
+    static final Comparator<Terminal> ORDER = Comparator.comparing(Terminal::getKey);
+
+    /** Number of Terminals in a page, and number of pages */
+    private static final int PAGE_SIZE = 1000, PAGES = 1000;
+
+    /** Pages of Terminals, by key; null where no Terminal was yet added */
+    private final Terminal[][] _pages = new Terminal[PAGES][];
+
+    /** Number of Terminals */
+    private int _size;
+
+    /**
+     * @param key the Terminal key
+     * @return the Terminal with the given key, or null if there is none
+     */
+    Terminal get(String key) {
+        int index = Terminal.keyNumber(key);
+        return index < 0 ? null : get(index);
+    }
+
+    /**
+     * @param index the Terminal key as a number, in 0..999999
+     * @return the Terminal with the given key, or null if there is none
+     */
+    Terminal get(int index) {
+        Terminal[] page = _pages[index / PAGE_SIZE];
+        return page == null ? null : page[index % PAGE_SIZE];
+    }
+
+    /**
+     * @param key the Terminal key
+     * @return true if there is a Terminal with the given key
+     */
+    boolean containsKey(String key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Adds a Terminal, replacing any other with the same key
+     *
+     * @param terminal the Terminal, whose key must be 6 digits
+     */
+    void put(Terminal terminal) {
+        int index = Terminal.keyNumber(terminal.getKey());
+        if(index < 0)
+            throw new IllegalArgumentException("bad terminal key " + terminal.getKey());
+        Terminal[] page = _pages[index / PAGE_SIZE];
+        if(page == null)
+            page = _pages[index / PAGE_SIZE] = new Terminal[PAGE_SIZE];
+        if(page[index % PAGE_SIZE] == null)
+            _size++;
+        page[index % PAGE_SIZE] = terminal;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return an iterator over the Terminals, in key order
+     */
+    @Override
+    public Iterator<Terminal> iterator() {
+        return new Iterator<>() {
+            /** Index of the next Terminal, PAGES * PAGE_SIZE if none */
+            private int _next = find(0);
+
+            @Override
+            public boolean hasNext() {
+                return _next < PAGES * PAGE_SIZE;
+            }
+
+            @Override
+            public Terminal next() {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                Terminal t = _pages[_next / PAGE_SIZE][_next % PAGE_SIZE];
+                _next = find(_next + 1);
+                return t;
+            }
+        };
+    }
+
+    /** @return index of the first Terminal at or after the given index */
+    private int find(int index) {
+        while(index < PAGES * PAGE_SIZE) {
+            Terminal[] page = _pages[index / PAGE_SIZE];
+            if(page == null) {
+                index = (index / PAGE_SIZE + 1) * PAGE_SIZE;
+                continue;
+            }
+            if(page[index % PAGE_SIZE] != null)
+                return index;
+            index++;
+        }
+        return index;
+    }
+}
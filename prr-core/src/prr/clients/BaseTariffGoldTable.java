@@ -2,6 +2,7 @@ package prr.clients;
 
 import java.io.Serial;
 
+import prr.Money;
 import prr.communications.TextCommunication;
 import prr.communications.VideoCommunication;
 import prr.communications.VoiceCommunication;
@@ -13,24 +14,24 @@ public class BaseTariffGoldTable extends TariffTable {
 	private static final long serialVersionUID = 202208091753L;
 
     @Override
-    public Double calculatePrice(TextCommunication c) {
+    public long calculatePrice(TextCommunication c) {
         if(c.getUnits() < 50) {
-            return 10.0;
+            return Money.units(10);
         } else if (c.getUnits() < 100) {
-            return 10.0;
+            return Money.units(10);
         } else {
-            return 2.0*c.getUnits();
+            return Money.units(2L*c.getUnits());
         }
     }
 
     @Override
-    public Double calculatePrice(VoiceCommunication c) {
-        return 10.0*c.getUnits();
+    public long calculatePrice(VoiceCommunication c) {
+        return Money.units(10L*c.getUnits());
     }
 
     @Override
-    public Double calculatePrice(VideoCommunication c) {
-        return 20.0*c.getUnits();
+    public long calculatePrice(VideoCommunication c) {
+        return Money.units(20L*c.getUnits());
     }   
 
     
@@ -2,6 +2,7 @@ package prr.clients;
 
 import java.io.Serial;
 
+import prr.Money;
 import prr.communications.TextCommunication;
 import prr.communications.VideoCommunication;
 import prr.communications.VoiceCommunication;
@@ -13,24 +14,24 @@ public class BaseTariffPlatinumTable extends TariffTable {
 	private static final long serialVersionUID = 202208091753L;
 
     @Override
-    public Double calculatePrice(TextCommunication c) {
+    public long calculatePrice(TextCommunication c) {
         if(c.getUnits() < 50) {
-            return 0.0;
+            return Money.units(0);
         } else if (c.getUnits() < 100) {
-            return 4.0;
+            return Money.units(4);
         } else {
-            return 4.0;
+            return Money.units(4);
         }
     }
 
     @Override
-    public Double calculatePrice(VoiceCommunication c) {
-        return 10.0*c.getUnits();
+    public long calculatePrice(VoiceCommunication c) {
+        return Money.units(10L*c.getUnits());
     }
 
     @Override
-    public Double calculatePrice(VideoCommunication c) {
-        return 10.0*c.getUnits();
+    public long calculatePrice(VideoCommunication c) {
+        return Money.units(10L*c.getUnits());
     }
     
 }
\ No newline at end of file
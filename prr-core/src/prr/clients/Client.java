@@ -1,18 +1,30 @@
 package prr.clients;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serial;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Queue;
 import java.util.TreeMap;
 import java.util.List;
 import java.util.ArrayList;
 
+import prr.Money;
 import prr.terminals.Terminal;
 
-/** A Client in the Network */
+/**
+ * A Client in the Network.
+ * <p>
+ * The balances, the type and the consecutive Communication counters are
+ * changed through any of the Client's Terminals, so they are only used
+ * holding the Client's monitor. So are the Notifications, delivered by the
+ * dispatcher of the Client's Network in its own thread. Operations of the Terminals that change
+ * them also hold the Client's operation lock from the moment they are
+ * journaled, so they are journaled in the order they change the Client.
+ */
 public class Client implements Serializable {
 
     @Serial
@@ -36,15 +48,37 @@ public class Client implements Serializable {
     /** Map of this Client's Terminals and their respective keys */
     private Map<String, Terminal> _terminals = new TreeMap<>();
 
-    /** Client's notifications not yet delivered */
-    private Queue<Notification> _unhandledNotificationsLog = new LinkedList<>();
+    /** Sum of the paid balances of this Client's Terminals, in cents */
+    private transient long _paidBalance;
 
-    /** A log of all Client notifications */
-    private Queue<Notification> _notificationsLog = new LinkedList<>();
+    /** Sum of the debt balances of this Client's Terminals, in cents */
+    private transient long _debtBalance;
+
+    /** Number of consecutive Text Communications started by this Client */
+    private int _consecutiveTextComms;
+
+    /** Number of consecutive Voice Communications started by this Client */
+    private int _consecutiveVoiceComms;
+
+    /** Number of consecutive Video Communications started by this Client */
+    private int _consecutiveVideoComms;
+
+    /** Client's notifications not yet delivered, used holding the Client's monitor */
+    private Queue<Notification> _unhandledNotificationsLog = new ArrayDeque<>();
+
+    /** The latest Client notifications, used holding the Client's monitor */
+    private NotificationHistory _notificationHistory =
+                                new NotificationHistory(NotificationHistory.DEFAULT_CAPACITY);
+
+    /** Delivers the Client's notifications, that of its Network; null if none */
+    private transient volatile NotificationDispatcher _dispatcher;
 
     /** Flag to determine if Client should be notified */
     private boolean _notificationsOn = true;
 
+    /** Lock held by the operations that change the Client */
+    private transient Object _operationLock = new Object();
+
     /** Base TariffPlan */
     private TariffPlan _tariffPlan = new BaseTariffPlan();
 
@@ -62,7 +96,9 @@ public class Client implements Serializable {
         @Override
         /** The default notification method simply registers a Notification that was unhandled */
         public void deliverNotification(Notification n) {
-			_unhandledNotificationsLog.add(n);
+            synchronized(Client.this) {
+                _unhandledNotificationsLog.add(n);
+            }
         }
     };
 
@@ -86,9 +122,17 @@ public class Client implements Serializable {
         public Notification(String terminalSenderKey, String notificationType) {
 			_terminalSenderKey = terminalSenderKey;
 			_notificationType = notificationType;
-            _notificationsLog.add(this);
+            synchronized(Client.this) {
+                _notificationHistory.add(terminalSenderKey, notificationType);
+            }
 		}
 
+        /** @return key of the Terminal that originated this Notification */
+        public String getTerminalSenderKey() { return _terminalSenderKey; }
+
+        /** @return type of this Notification */
+        public String getNotificationType() { return _notificationType; }
+
         /** @see java.lang.Object#toString() */
 		public String toString(){
 			return _notificationType + "|" + _terminalSenderKey;
@@ -96,6 +140,16 @@ public class Client implements Serializable {
     }
 
 
+    @Serial
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        // older versions kept every notification, and the queue in a LinkedList
+        if(_notificationHistory == null)
+            _notificationHistory = new NotificationHistory(NotificationHistory.DEFAULT_CAPACITY);
+        _unhandledNotificationsLog = new ArrayDeque<>(_unhandledNotificationsLog);
+        _operationLock = new Object();
+    }
+
     /**
      *
      * @param key Client's identifying key
@@ -106,7 +160,7 @@ public class Client implements Serializable {
         _key = key;
         _name = name;
         _taxId = taxId;
-        _type = new NormalType(this);
+        _type = NormalType.INSTANCE;
     }
 
     /**
@@ -137,7 +191,7 @@ public class Client implements Serializable {
      *
      * @return Client's type
      */
-    public ClientType getClientType() {
+    public synchronized ClientType getClientType() {
         return _type;
     }
 
@@ -147,10 +201,38 @@ public class Client implements Serializable {
      */
     public TariffPlan getTariffPlan() { return _tariffPlan; }
 
+    /**
+     * 
+     * @return Client's TariffTable for his current Type
+     */
+    public synchronized TariffTable getTariffTable() { return _type.getTariffTable(this); }
+
+    /** @return number of consecutive Text Communications */
+    public synchronized int getConsecutiveTextComms() { return _consecutiveTextComms; }
+
+    /** @return number of consecutive Voice Communications */
+    public synchronized int getConsecutiveVoiceComms() { return _consecutiveVoiceComms; }
+
+    /** @return number of consecutive Video Communications */
+    public synchronized int getConsecutiveVideoComms() { return _consecutiveVideoComms; }
+
+    /** Restores the consecutive Communication counters, e.g. after a load */
+    public synchronized void restoreConsecutiveComms(int text, int voice, int video) {
+        _consecutiveTextComms = text;
+        _consecutiveVoiceComms = voice;
+        _consecutiveVideoComms = video;
+    }
+
     public Collection<Terminal> getTerminals() {
         return _terminals.values();
     }
 
+    /**
+     * @return the lock held by the operations that change the Client, taken
+     *         after the locks of the Terminals
+     */
+    public Object getOperationLock() { return _operationLock; }
+
     /**
      *
      * @return Client's notification flag
@@ -175,41 +257,56 @@ public class Client implements Serializable {
 
 
     /**
-     * Returns this Client's balance in debt by checking each of his Terminal's
-     * debt balance.
+     * Returns this Client's balance in debt, the sum of the debt balances of
+     * his Terminals.
      *
-     * @return Client's debt balance
+     * @return Client's debt balance, in cents
      *
      */
-    public Double getClientDebtBalance() {
-        Double sum = 0.0;
-        for(Terminal t : getTerminals())
-            sum += t.getDebtBalance();
+    public synchronized long getClientDebtBalance() {
+        return _debtBalance;
+    }
 
-        return sum;
+    /**
+     * Returns this Client's balance paid, the sum of the paid balances of his
+     * Terminals.
+     *
+     * @return Client's paid balance, in cents
+     */
+    public synchronized long getClientPaidBalance() {
+        return _paidBalance;
     }
 
     /**
-     * Returns this Client's balance paid by checking each of his Terminal's
-     * paid balance.
+     * Updates this Client's balances after the balances of one of his
+     * Terminals changed
      *
-     * @return Client's paid balance
+     * @param paid amount added to the paid balance, in cents
+     * @param debt amount added to the debt balance, in cents
      */
-    public Double getClientPaidBalance() {
-        Double sum = 0.0;
-        for(Terminal t : getTerminals())
-            sum += t.getPaidBalance();
+    public synchronized void balanceChanged(long paid, long debt) {
+        _paidBalance += paid;
+        _debtBalance += debt;
+    }
 
-        return sum;
+    /**
+     * Sums this Client's balances again from his Terminals, e.g. after the
+     * Client is deserialized
+     */
+    public synchronized void restoreBalance() {
+        _paidBalance = 0;
+        _debtBalance = 0;
+        for(Terminal t : getTerminals())
+            balanceChanged(t.getPaidBalance(), t.getDebtBalance());
     }
 
     /**
      * Returns the balance of this Client. The balance is defined as the
      * difference between the Client's paid balance and debt balance
      * 
-     * @return Client's total balance
+     * @return Client's total balance, in cents
      */
-    public Double getClientBalance() {
+    public synchronized long getClientBalance() {
         return getClientPaidBalance() - getClientDebtBalance();
     }
 
@@ -219,13 +316,70 @@ public class Client implements Serializable {
      * @return All Client's unhandled Notifications
      */
 	public Collection<Notification> getUnhandledNotification(){
+		flushNotifications();
 		List<Notification> aux = new ArrayList<>();
-		while(!_unhandledNotificationsLog.isEmpty()){
-			aux.add(_unhandledNotificationsLog.remove());
+		synchronized(this) {
+			while(!_unhandledNotificationsLog.isEmpty()){
+				aux.add(_unhandledNotificationsLog.remove());
+			}
 		}
 		return aux;
 	}
 
+    /**
+     * Returns Client's unhandled Notifications without handling them
+     *
+     * @return copy of the Client's unhandled Notifications
+     */
+    public Collection<Notification> peekUnhandledNotifications() {
+        flushNotifications();
+        synchronized(this) {
+            return new ArrayList<>(_unhandledNotificationsLog);
+        }
+    }
+
+    /**
+     * Returns the latest Notifications of this Client, handled or not
+     *
+     * @return copy of the Client's notification history
+     */
+    public NotificationHistory getNotificationHistory() {
+        flushNotifications();
+        synchronized(this) {
+            return new NotificationHistory(_notificationHistory);
+        }
+    }
+
+    /**
+     * @param dispatcher delivers the Client's Notifications, that of the
+     *                   Network the Client belongs to
+     */
+    public void setNotificationDispatcher(NotificationDispatcher dispatcher) {
+        _dispatcher = dispatcher;
+    }
+
+    /**
+     * Queues a Notification, delivered by the dispatcher of the Client's
+     * Network, or at once if the Client belongs to none
+     *
+     * @param terminalKey key of the Terminal that originated the Notification
+     * @param type type of the Notification
+     */
+    public void queueNotification(String terminalKey, String type) {
+        NotificationDispatcher dispatcher = _dispatcher;
+        if(dispatcher == null)
+            deliver(terminalKey, type);
+        else
+            dispatcher.post(this, terminalKey, type);
+    }
+
+    /** Waits until the Notifications queued so far are delivered */
+    private void flushNotifications() {
+        NotificationDispatcher dispatcher = _dispatcher;
+        if(dispatcher != null)
+            dispatcher.flush();
+    }
+
     /**
      * Sets notifications flag to given boolean
      *
@@ -236,12 +390,14 @@ public class Client implements Serializable {
     }
 
     /**
-     * Sets Client's Type to given Type
+     * Sets Client's Type to given Type. Consecutive Communications are
+     * counted again from zero under the new Type.
      *
      * @param type new Client's Type
      */
-    public void setClientType(ClientType type) {
+    public synchronized void setClientType(ClientType type) {
         _type = type;
+        restoreConsecutiveComms(0, 0, 0);
     }
 
     /**
@@ -251,19 +407,32 @@ public class Client implements Serializable {
         _notificationMethod.deliverNotification(n);
     }
 
+    /**
+     * Delivers a Notification posted to the NotificationDispatcher
+     *
+     * @param terminalKey key of the Terminal that originated the Notification
+     * @param type type of the Notification
+     */
+    void deliver(String terminalKey, String type) {
+        notify(new Notification(terminalKey, type));
+    }
+
     /**
      * Adds given Terminal to the Client's owned Terminals
      *
      * @param terminal Terminal to be added to user's owned Terminals
      */
-    public void addTerminal(Terminal terminal) {
-        _terminals.put(terminal.getKey(), terminal);
+    public synchronized void addTerminal(Terminal terminal) {
+        Terminal previous = _terminals.put(terminal.getKey(), terminal);
+        if(previous != null)
+            balanceChanged(-previous.getPaidBalance(), -previous.getDebtBalance());
+        balanceChanged(terminal.getPaidBalance(), terminal.getDebtBalance());
     }
 
     /**
      * Performs the required actions on a Client after a payment
      */
-    public void pay() {
+    public synchronized void pay() {
         _type.pay(this);
     }
 
@@ -271,29 +440,35 @@ public class Client implements Serializable {
      * Performs the required actions on a Client after starting a
      * communication
      */
-    public void sendCommunication() {
+    public synchronized void sendCommunication() {
         _type.sendCommunication(this);
     }
 
     /**
      * Increments number of consecutive Text Comms of a Client
      */
-    public void incrementConsecutiveTextComms() {
-        _type.incrementConsecutiveTextComms();
+    public synchronized void incrementConsecutiveTextComms() {
+        _consecutiveTextComms++;
+        _consecutiveVoiceComms = 0;
+        _consecutiveVideoComms = 0;
     }
 
     /**
      * Increments number of consecutive Voice Comms of a Client
      */
-    public void incrementConsecutiveVoiceComms() {
-        _type.incrementConsecutiveVoiceComms();
+    public synchronized void incrementConsecutiveVoiceComms() {
+        _consecutiveVoiceComms++;
+        _consecutiveTextComms = 0;
+        _consecutiveVideoComms = 0;
     }
 
     /**
      * Increments number of consecutive Video Comms of a Client
      */
-    public void incrementConsecutiveVideoComms() {
-        _type.incrementConsecutiveVideoComms();
+    public synchronized void incrementConsecutiveVideoComms() {
+        _consecutiveVideoComms++;
+        _consecutiveTextComms = 0;
+        _consecutiveVoiceComms = 0;
     }
 
     /**
@@ -316,7 +491,7 @@ public class Client implements Serializable {
                 _type + "|" +
                 (notificationsOn() ? "YES" : "NO") + "|" +
                 _terminals.size() + "|" +
-                (int) Math.round(getClientPaidBalance()) + "|" +
-                (int) Math.round(getClientDebtBalance());
+                Money.round(getClientPaidBalance()) + "|" +
+                Money.round(getClientDebtBalance());
     }
 }
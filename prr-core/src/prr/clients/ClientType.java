@@ -2,17 +2,18 @@ package prr.clients;
 
 /** 
  * A class that represents the Type of Clients in the Network, having impact on the
- * price of their communications
+ * price of their communications.
+ * <p>
+ * Types hold no state of their own, so each is a single shared instance; the
+ * counters of consecutive Communications are kept by the Client.
  */
 public abstract class ClientType {
-    protected TariffTable _tariffTable;
-    protected Integer _consecutiveTextComms = 0;
-    protected Integer _consecutiveVoiceComms = 0;
-    protected Integer _consecutiveVideoComms = 0;
 
-    public TariffTable getTariffTable() {
-        return _tariffTable;
-    }
+    /**
+     * @param context Client of this Type
+     * @return the Client's Tariff Table for this Type
+     */
+    public abstract TariffTable getTariffTable(Client context);
 
     /** Updates Client Type on payment action */
     public void pay(Client context) {
@@ -28,24 +29,4 @@ public abstract class ClientType {
     public void changeClientType(ClientType t, Client context) {
         context.setClientType(t);
     }
-
-    /** Increments counter of consecutive Text Communications */
-    public void incrementConsecutiveTextComms() {
-        _consecutiveTextComms++;
-        _consecutiveVoiceComms = 0;
-        _consecutiveVideoComms = 0;
-    }
-
-    /** Increments counter of consecutive Voice Communications */
-    public void incrementConsecutiveVoiceComms() {
-        _consecutiveVoiceComms++;
-        _consecutiveTextComms = 0;
-        _consecutiveVideoComms = 0;
-
-    /** Increments counter of consecutive Video Communications */
-    }public void incrementConsecutiveVideoComms() {
-        _consecutiveVideoComms++;
-        _consecutiveTextComms = 0;
-        _consecutiveVoiceComms = 0;
-    }
-}
\ No newline at end of file
+}
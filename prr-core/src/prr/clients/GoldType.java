@@ -8,17 +8,30 @@ public class GoldType extends ClientType implements Serializable {
     /** Serial number for serialization. */
 	private static final long serialVersionUID = 202208091753L;
 
-    public GoldType(Client context) {
-        _tariffTable = context.getTariffPlan().getGoldTable();
+    /** The gold Type, shared by every Client of this Type */
+    public static final GoldType INSTANCE = new GoldType();
+
+    private GoldType() {}
+
+    /** @return the shared instance, in place of a deserialized copy */
+    @Serial
+    private Object readResolve() {
+        return INSTANCE;
+    }
+
+    /** @see prr.clients.ClientType#getTariffTable(Client) */
+    @Override
+    public TariffTable getTariffTable(Client context) {
+        return context.getTariffPlan().getGoldTable();
     }
 
     /** @see prr.clients.ClientType#sendCommunication(Client) */
     @Override
     public void sendCommunication(Client context) {
         if(context.getClientBalance() < 0)
-            changeClientType(new NormalType(context), context);
-        if(_consecutiveVideoComms.equals(5) && context.getClientBalance() > 0)
-            changeClientType(new PlatinumType(context), context);
+            changeClientType(NormalType.INSTANCE, context);
+        if(context.getConsecutiveVideoComms() == 5 && context.getClientBalance() > 0)
+            changeClientType(PlatinumType.INSTANCE, context);
     }
 
     /** @see java.lang.Object#toString() */
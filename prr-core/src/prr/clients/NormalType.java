@@ -3,20 +3,35 @@ package prr.clients;
 import java.io.Serial;
 import java.io.Serializable;
 
+import prr.Money;
+
 public class NormalType extends ClientType implements Serializable {
     @Serial
     /** Serial number for serialization. */
 	private static final long serialVersionUID = 202208091753L;
 
-    public NormalType(Client context) {
-        _tariffTable = context.getTariffPlan().getNormalTable();
+    /** The normal Type, shared by every Client of this Type */
+    public static final NormalType INSTANCE = new NormalType();
+
+    private NormalType() {}
+
+    /** @return the shared instance, in place of a deserialized copy */
+    @Serial
+    private Object readResolve() {
+        return INSTANCE;
+    }
+
+    /** @see prr.clients.ClientType#getTariffTable(Client) */
+    @Override
+    public TariffTable getTariffTable(Client context) {
+        return context.getTariffPlan().getNormalTable();
     }
 
     /** @see prr.clients.ClientType#pay(Client) */
     @Override
     public void pay(Client context) {
-        if(context.getClientBalance() > 500) {
-            changeClientType(new GoldType(context), context);
+        if(context.getClientBalance() > Money.units(500)) {
+            changeClientType(GoldType.INSTANCE, context);
         }
     }
 
@@ -0,0 +1,212 @@
+package prr.clients;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Delivers Notifications to Clients in a background thread, so a Terminal
+ * changing state only queues its Notifications.
+ * <p>
+ * Notifications wait in a bounded ring buffer. The delivering thread takes
+ * everything queued at once and delivers it Client by Client, keeping the
+ * order of each Client's Notifications. A full buffer makes the thread
+ * posting wait until there is room. Reading a Client's Notifications first
+ * waits for the Notifications already posted to be delivered, so they are
+ * always seen in full. Each Network has its own dispatcher, whose thread
+ * stops once it has nothing to deliver for a while.
+ */
+public final class NotificationDispatcher {
+
+    /** Number of Notifications the buffer holds */
+    private static final int CAPACITY = 1024;
+
+    /** Time the delivering thread waits for a Notification before it stops, in milliseconds */
+    private static final long IDLE_TIME = 1000;
+
+    /**
+     * Counters of a dispatcher
+     *
+     * @param posted Notifications posted
+     * @param delivered Notifications delivered
+     * @param batches times the delivering thread took Notifications from the buffer
+     * @param stalls times a thread posting waited for room in the buffer
+     */
+    public record Metrics(long posted, long delivered, long batches, long stalls) {}
+
+    /** A Notification taken from the buffer, to be delivered */
+    private record Pending(String terminalKey, String type) {}
+
+    /** Client, Terminal key and type of the queued Notifications */
+    private final Client[] _clients;
+    private final String[] _terminalKeys;
+    private final String[] _types;
+
+    /** Number of Notifications posted, and delivered */
+    private long _posted, _delivered;
+
+    /** Number of Notifications taken from the buffer by the delivering thread */
+    private long _taken;
+
+    private long _batches, _stalls;
+
+    /** Error thrown by a delivery, to be rethrown by the next flush */
+    private RuntimeException _failure;
+
+    /** Thread delivering the Notifications, started on demand */
+    private Thread _worker;
+
+    /** Creates a dispatcher whose buffer holds the default number of Notifications */
+    public NotificationDispatcher() {
+        this(CAPACITY);
+    }
+
+    /**
+     * @param capacity number of Notifications the buffer holds
+     */
+    NotificationDispatcher(int capacity) {
+        _clients = new Client[capacity];
+        _terminalKeys = new String[capacity];
+        _types = new String[capacity];
+    }
+
+    /**
+     * Queues a Notification for a Client, waiting while the buffer is full
+     *
+     * @param client the Client to notify
+     * @param terminalKey key of the Terminal that originated the Notification
+     * @param type type of the Notification
+     */
+    public synchronized void post(Client client, String terminalKey, String type) {
+        if(Thread.currentThread() == _worker) {
+            // a delivery notifying again cannot wait for itself
+            client.deliver(terminalKey, type);
+            return;
+        }
+        if(_worker == null)
+            start();
+        boolean interrupted = false;
+        if(_posted - _taken == _clients.length)
+            _stalls++;
+        while(_posted - _taken == _clients.length) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        int i = (int) (_posted % _clients.length);
+        _clients[i] = client;
+        _terminalKeys[i] = terminalKey;
+        _types[i] = type;
+        _posted++;
+        notifyAll();
+        if(interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * Waits until every Notification posted so far is delivered
+     *
+     * @throws RuntimeException the error thrown by a delivery since the last
+     *                          flush, if any
+     */
+    public synchronized void flush() {
+        if(Thread.currentThread() == _worker)
+            return;
+        boolean interrupted = false;
+        long target = _posted;
+        while(_delivered < target) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if(interrupted)
+            Thread.currentThread().interrupt();
+        if(_failure != null) {
+            RuntimeException failure = _failure;
+            _failure = null;
+            throw failure;
+        }
+    }
+
+    /** @return the counters of this dispatcher */
+    public synchronized Metrics getMetrics() {
+        return new Metrics(_posted, _delivered, _batches, _stalls);
+    }
+
+    /** Starts the delivering thread */
+    private void start() {
+        _worker = new Thread(this::run, "notification-dispatcher");
+        _worker.setDaemon(true);
+        _worker.start();
+    }
+
+    /** Delivers the Notifications as they are posted */
+    private void run() {
+        while(true) {
+            Map<Client, List<Pending>> batch = take();
+            if(batch == null)
+                return;
+            RuntimeException failure = null;
+            int count = 0;
+            for(Map.Entry<Client, List<Pending>> e : batch.entrySet()) {
+                for(Pending n : e.getValue()) {
+                    try {
+                        e.getKey().deliver(n.terminalKey(), n.type());
+                    } catch (RuntimeException x) {
+                        if(failure == null)
+                            failure = x;
+                    }
+                    count++;
+                }
+            }
+            synchronized(this) {
+                _delivered += count;
+                if(failure != null && _failure == null)
+                    _failure = failure;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Takes every queued Notification, waiting for one if there are none
+     *
+     * @return the Notifications, by Client in order of their first
+     *         Notification, each Client's in the order they were posted;
+     *         null if none came for a while, once the thread is to stop
+     */
+    private synchronized Map<Client, List<Pending>> take() {
+        long deadline = System.currentTimeMillis() + IDLE_TIME;
+        while(_taken == _posted) {
+            long left = deadline - System.currentTimeMillis();
+            if(left <= 0) {
+                // the next post starts another thread
+                _worker = null;
+                return null;
+            }
+            try {
+                wait(left);
+            } catch (InterruptedException e) {
+                // daemon thread, nobody interrupts it to stop
+            }
+        }
+        Map<Client, List<Pending>> batch = new LinkedHashMap<>();
+        for(; _taken < _posted; _taken++) {
+            int i = (int) (_taken % _clients.length);
+            batch.computeIfAbsent(_clients[i], c -> new ArrayList<>())
+                        .add(new Pending(_terminalKeys[i], _types[i]));
+            _clients[i] = null;
+            _terminalKeys[i] = null;
+            _types[i] = null;
+        }
+        _batches++;
+        // room for the threads waiting to post
+        notifyAll();
+        return batch;
+    }
+}
@@ -0,0 +1,134 @@
+package prr.clients;
+
+import java.io.Serial;
+import java.io.Serializable;
+
+import prr.terminals.Terminal;
+
+/**
+ * The latest Notifications of a Client, up to a fixed number.
+ * <p>
+ * Each Notification is kept as the number of its 6-digit Terminal key and
+ * the code of its type, in arrays used as a ring: once full, every new
+ * Notification replaces the oldest one.
+ */
+public class NotificationHistory implements Serializable {
+
+    @Serial
+    /** Serial number for serialization. */
+	private static final long serialVersionUID = 202208091753L;
+
+    /** Number of Notifications kept by default */
+    public static final int DEFAULT_CAPACITY = 64;
+
+    /** Types of Notifications, by code */
+    private static final String[] TYPES = { "O2I", "O2S", "B2I", "S2I" };
+
+    /** Terminal keys of the Notifications, as numbers */
+    private int[] _terminals;
+
+    /** Type codes of the Notifications */
+    private byte[] _types;
+
+    /** Number of Notifications ever added */
+    private long _count;
+
+    /**
+     * @param capacity number of Notifications kept
+     */
+    public NotificationHistory(int capacity) {
+        if(capacity < 0)
+            throw new IllegalArgumentException("negative capacity " + capacity);
+        _terminals = new int[capacity];
+        _types = new byte[capacity];
+    }
+
+    /**
+     * @param history the history to copy
+     */
+    public NotificationHistory(NotificationHistory history) {
+        _terminals = history._terminals.clone();
+        _types = history._types.clone();
+        _count = history._count;
+    }
+
+    /** @return number of Notifications kept */
+    public int getCapacity() { return _terminals.length; }
+
+    /** @return number of Notifications held, at most the capacity */
+    public int size() {
+        return (int) Math.min(_count, _terminals.length);
+    }
+
+    /**
+     * Adds a Notification, forgetting the oldest one if full
+     *
+     * @param terminalKey key of the Terminal that originated the Notification
+     * @param type type of the Notification
+     */
+    public void add(String terminalKey, String type) {
+        if(_terminals.length == 0)
+            return;
+        int i = (int) (_count % _terminals.length);
+        _terminals[i] = terminalNumber(terminalKey);
+        _types[i] = typeCode(type);
+        _count++;
+    }
+
+    /**
+     * @param i position of the Notification, 0 being the oldest held
+     * @return key of the Terminal that originated the Notification
+     */
+    public String getTerminalKey(int i) {
+        return Terminal.keyOf(_terminals[slot(i)]);
+    }
+
+    /**
+     * @param i position of the Notification, 0 being the oldest held
+     * @return type of the Notification
+     */
+    public String getType(int i) {
+        return TYPES[_types[slot(i)]];
+    }
+
+    /**
+     * Changes the number of Notifications kept, forgetting the oldest ones
+     * that no longer fit
+     *
+     * @param capacity number of Notifications kept
+     */
+    public void setCapacity(int capacity) {
+        NotificationHistory resized = new NotificationHistory(capacity);
+        for(int i = Math.max(0, size() - capacity); i < size(); i++) {
+            resized._terminals[(int) (resized._count % capacity)] = _terminals[slot(i)];
+            resized._types[(int) (resized._count % capacity)] = _types[slot(i)];
+            resized._count++;
+        }
+        _terminals = resized._terminals;
+        _types = resized._types;
+        _count = resized._count;
+    }
+
+    /** @return index in the arrays of the Notification at a position */
+    private int slot(int i) {
+        if(i < 0 || i >= size())
+            throw new IndexOutOfBoundsException(i);
+        return (int) ((_count - size() + i) % _terminals.length);
+    }
+
+    /** @return the number of a 6-digit Terminal key */
+    private static int terminalNumber(String key) {
+        int n = Terminal.keyNumber(key);
+        if(n < 0)
+            throw new IllegalArgumentException("bad terminal key " + key);
+        return n;
+    }
+
+    /** @return the code of a Notification type */
+    private static byte typeCode(String type) {
+        for(byte i = 0; i < TYPES.length; i++)
+            if(TYPES[i].equals(type))
+                return i;
+        throw new IllegalArgumentException("unknown notification type " + type);
+    }
+}
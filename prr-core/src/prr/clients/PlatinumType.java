@@ -8,17 +8,30 @@ public class PlatinumType extends ClientType implements Serializable {
     /** Serial number for serialization. */
 	private static final long serialVersionUID = 202208091753L;
 
-    public PlatinumType(Client context) {
-        _tariffTable = context.getTariffPlan().getPlatinumTable(); 
+    /** The platinum Type, shared by every Client of this Type */
+    public static final PlatinumType INSTANCE = new PlatinumType();
+
+    private PlatinumType() {}
+
+    /** @return the shared instance, in place of a deserialized copy */
+    @Serial
+    private Object readResolve() {
+        return INSTANCE;
+    }
+
+    /** @see prr.clients.ClientType#getTariffTable(Client) */
+    @Override
+    public TariffTable getTariffTable(Client context) {
+        return context.getTariffPlan().getPlatinumTable();
     }
     
     /** @see prr.clients.ClientType#sendCommunication(Client) */
     @Override
     public void sendCommunication(Client context) {
-        if(_consecutiveTextComms.equals(2) && context.getClientBalance() > 0)
-            changeClientType(new GoldType(context), context);
+        if(context.getConsecutiveTextComms() == 2 && context.getClientBalance() > 0)
+            changeClientType(GoldType.INSTANCE, context);
         if(context.getClientBalance() < 0)
-            changeClientType(new NormalType(context), context);
+            changeClientType(NormalType.INSTANCE, context);
     }
     
     /** @see java.lang.Object#toString() */
@@ -12,7 +12,8 @@ public abstract class TariffTable implements Serializable {
     /** Serial number for serialization. */
 	private static final long serialVersionUID = 202208091753L;
     
-    public abstract Double calculatePrice(TextCommunication c);
-    public abstract Double calculatePrice(VideoCommunication c);
-    public abstract Double calculatePrice(VoiceCommunication c);
+    // prices are in cents, see prr.Money
+    public abstract long calculatePrice(TextCommunication c);
+    public abstract long calculatePrice(VideoCommunication c);
+    public abstract long calculatePrice(VoiceCommunication c);
 }
@@ -1,13 +1,11 @@
 package prr.communications;
 
+import prr.Money;
 import prr.clients.TariffTable;
 import prr.terminals.Terminal;
 
 /** Communication in the Network */
 public abstract class Communication implements Comparable<Communication> {
-    /** Static counter of total Communications on the Network */
-    private static Integer _count = 1;
-
     /** Communication identifying integer */
     protected final Integer _number;
 
@@ -26,20 +24,24 @@ public abstract class Communication implements Comparable<Communication> {
     /** Text chars or duration units */
     protected Integer _units;
 
-    protected Double _price;
+    /** Price in cents */
+    protected long _price;
 
     /**
-     * 
-     * @param sender Terminal starting the communication
-     * @param receiver Terminal receiving the communication
+     * Creates a Communication with the number its Network gave it, or
+     * recreates one read back from a snapshot
+     *
+     * @param number Identifying number of the communication
+     * @param sender Terminal that started the communication
+     * @param receiver Terminal that received the communication
      */
-    Communication(Terminal sender, Terminal receiver) {
-       _number = Communication._count++;
+    Communication(Integer number, Terminal sender, Terminal receiver) {
+       _number = number;
        _sender = sender;
-       _receiver = receiver; 
+       _receiver = receiver;
        _paid = false;
     }
- 
+
     /**
      * 
      * @return Identifying number of this communication
@@ -60,9 +62,9 @@ public abstract class Communication implements Comparable<Communication> {
 
     /**
      * 
-     * @return Price of this communication
+     * @return Price of this communication, in cents
      */
-    public Double getPrice() { return _price; }
+    public long getPrice() { return _price; }
 
     /**
      * 
@@ -98,9 +100,25 @@ public abstract class Communication implements Comparable<Communication> {
     /**
      * Set price of the communication
      * 
-     * @param price Price of the Communication
+     * @param price Price of the Communication, in cents
+     */
+    public void setPrice(long price) { _price = price; } 
+
+    /**
+     * Restores the attributes of a Communication read back from a snapshot,
+     * bypassing pricing rules and Terminal state changes
+     *
+     * @param units Units of this communication
+     * @param price Price already charged for this communication, in cents
+     * @param finished True if the communication is finished
+     * @param paid True if the communication is paid
      */
-    public void setPrice(Double price) { _price = price; } 
+    public void restore(Integer units, long price, boolean finished, boolean paid) {
+        _units = units;
+        _price = price;
+        _finished = finished;
+        _paid = paid;
+    }
 
     /**
      * Sets the price of this communication based on a TariffTable
@@ -129,7 +147,7 @@ public abstract class Communication implements Comparable<Communication> {
             _sender.getKey() + "|" +
             _receiver.getKey() + "|" +
             _units + "|" +
-            (int) Math.round(_price) + "|" +
+            Money.round(_price) + "|" +
             (_finished ? "FINISHED" : "ONGOING");
     }
     
@@ -5,23 +5,21 @@ import prr.terminals.Terminal;
 
 /** An Interactive Communication (either Video or Voice) */
 public abstract class InteractiveCommunication extends Communication {
-    InteractiveCommunication(Terminal sender, Terminal receiver) {
-        super(sender, receiver);
-        _finished = false;
-        _price = 0.0;
+    /**
+     * Creates an Interactive Communication, or recreates one with a known
+     * number, without registering it in its Terminals
+     */
+    InteractiveCommunication(Integer number, Terminal sender, Terminal receiver) {
+        super(number, sender, receiver);
         _units = 0;
-        // accordingly register Communication  
-        registerCommunication();
     }
 
     /**
      * Registers Communication in the context of its Terminals
-     * and  updates Terminals states
+     * and  updates Terminals states. The Network adds it to the
+     * Terminals' lists of Communications.
      */
     public void registerCommunication() {
-        // register communication
-        _sender.getStartedCommunications().add(this);
-        _receiver.getReceivedCommunications().add(this);
         // add communication reference to endpoints
         _sender.setActiveCommunication(this);
         _receiver.setActiveCommunication(this);
@@ -29,8 +27,8 @@ public abstract class InteractiveCommunication extends Communication {
         _sender.setTerminalStateBeforeBusy(_sender.getState());
         _receiver.setTerminalStateBeforeBusy(_receiver.getState());
         // set endpoints states to busy
-        _sender.getState().changeTerminalState(_sender, new BusyTerminalState());
-        _receiver.getState().changeTerminalState(_receiver, new BusyTerminalState());
+        _sender.getState().changeTerminalState(_sender, BusyTerminalState.INSTANCE);
+        _receiver.getState().changeTerminalState(_receiver, BusyTerminalState.INSTANCE);
     }
 
     /**
@@ -47,10 +45,10 @@ public abstract class InteractiveCommunication extends Communication {
     }
 
     /**
-     * @see prr.communications.Communication#setPrice(Double)
+     * @see prr.communications.Communication#setPrice(long)
      */
     @Override
-    public void setPrice(Double price) {
+    public void setPrice(long price) {
         if(_sender.isFriend(_receiver)) {
             price /= 2;
         }
@@ -10,18 +10,26 @@ public class TextCommunication extends Communication {
     private String _text;
 
     /**
-     * 
+     * Creates a Text Communication, or recreates one with a known number
+     *
+     * @param number Identifying number of this communication
      * @param sender Terminal that started this communication
      * @param receiver Terminal receiving this communication
      * @param text The text body of this communication
      */
-    public TextCommunication(Terminal sender, Terminal receiver, String text) {
-        super(sender, receiver);
+    public TextCommunication(Integer number, Terminal sender, Terminal receiver, String text) {
+        super(number, sender, receiver);
         _text = text;
         _finished = true;
         _units = text.length();
     }
 
+    /**
+     *
+     * @return The text body of this communication
+     */
+    public String getText() { return _text; }
+
     /**
      * @see prr.communications.Communication#determinePrice(TariffTable)
      */
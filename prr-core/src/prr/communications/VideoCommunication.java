@@ -5,9 +5,13 @@ import prr.terminals.Terminal;
 
 /** A Video Communication */
 public class VideoCommunication extends InteractiveCommunication {
-    public VideoCommunication(Terminal sender, Terminal receiver) {
-        super(sender, receiver);
-        _price = 0.0;
+    /**
+     * Creates a Video Communication, or recreates one with a known number
+     *
+     * @see prr.communications.Communication#restore(Integer, long, boolean, boolean)
+     */
+    public VideoCommunication(Integer number, Terminal sender, Terminal receiver) {
+        super(number, sender, receiver);
     }
 
     /**
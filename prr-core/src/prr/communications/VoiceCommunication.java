@@ -5,9 +5,13 @@ import prr.terminals.Terminal;
 
 /** A Voice Communication */
 public class VoiceCommunication extends InteractiveCommunication {
-    public VoiceCommunication(Terminal sender, Terminal receiver) {
-        super(sender, receiver);
-        _price = 0.0;
+    /**
+     * Creates a Voice Communication, or recreates one with a known number
+     *
+     * @see prr.communications.Communication#restore(Integer, long, boolean, boolean)
+     */
+    public VoiceCommunication(Integer number, Terminal sender, Terminal receiver) {
+        super(number, sender, receiver);
     }
     
     /**
@@ -0,0 +1,85 @@
+package prr.storage;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import prr.clients.Client;
+import prr.communications.Communication;
+import prr.terminals.Terminal;
+
+/**
+ * The entities of a Network changed since its last snapshot or delta.
+ * <p>
+ * A change set may instead be complete, when the changes are not known
+ * entity by entity, in which case the whole Network must be written.
+ */
+public class ChangeSet {
+
+    /** Changed Clients */
+    private final Set<Client> _clients = new HashSet<>();
+
+    /** Changed Terminals */
+    private final Set<Terminal> _terminals = new HashSet<>();
+
+    /** Changed Communications */
+    private final Set<Communication> _communications = new HashSet<>();
+
+    /** True if every entity must be considered changed */
+    private boolean _complete;
+
+    /**
+     * @param client a changed Client
+     */
+    public void add(Client client) {
+        _clients.add(client);
+    }
+
+    /**
+     * Adds a changed Terminal. Its owner and the Clients observing it are
+     * added too, since the changes of a Terminal reach its owner's counters
+     * and the notifications of its observers.
+     *
+     * @param terminal a changed Terminal
+     */
+    public void add(Terminal terminal) {
+        _terminals.add(terminal);
+        _clients.add(terminal.getOwner());
+        _clients.addAll(terminal.getClientsObserver());
+    }
+
+    /**
+     * @param communication a changed Communication
+     */
+    public void add(Communication communication) {
+        _communications.add(communication);
+    }
+
+    /**
+     * Makes every entity be considered changed
+     */
+    public void setComplete() {
+        _complete = true;
+    }
+
+    /**
+     * @return true if every entity must be considered changed
+     */
+    public boolean isComplete() {
+        return _complete;
+    }
+
+    /**
+     * @return true if nothing changed
+     */
+    public boolean isEmpty() {
+        return !_complete && _clients.isEmpty() && _terminals.isEmpty()
+                    && _communications.isEmpty();
+    }
+
+    Collection<Client> getClients() { return _clients; }
+
+    Collection<Terminal> getTerminals() { return _terminals; }
+
+    Collection<Communication> getCommunications() { return _communications; }
+}
@@ -0,0 +1,86 @@
+package prr.storage;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Names and finds the delta segments written next to a snapshot file.
+ * <p>
+ * A delta is named after its snapshot and the journal sequence number it
+ * reflects, {@code <snapshot>.delta.<sequence>}. The deltas of a snapshot are
+ * those with a sequence number above the snapshot's, applied in sequence
+ * order; older ones were already merged into the snapshot.
+ */
+public final class Deltas {
+
+    /** Separator between the snapshot name and the sequence number */
+    private static final String SUFFIX = ".delta.";
+
+    private Deltas() {
+        // static helpers only
+    }
+
+    /**
+     * @param filename name of the snapshot file
+     * @param sequence journal sequence number reflected by the delta
+     * @return name of the delta file
+     */
+    public static String name(String filename, long sequence) {
+        return String.format("%s%s%019d", filename, SUFFIX, sequence);
+    }
+
+    /**
+     * Lists the delta files of a snapshot, oldest first
+     *
+     * @param filename name of the snapshot file
+     * @return the delta files
+     * @throws IOException if the directory cannot be read
+     */
+    public static List<Path> list(String filename) throws IOException {
+        Path snapshot = Path.of(filename).toAbsolutePath();
+        String prefix = snapshot.getFileName() + SUFFIX;
+        List<Path> deltas = new ArrayList<>();
+        // a prefix, not a glob: the snapshot name may hold glob characters
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(snapshot.getParent(),
+                                p -> p.getFileName().toString().startsWith(prefix))) {
+            for(Path p : dir)
+                if(sequence(p) >= 0)
+                    deltas.add(p);
+        }
+        deltas.sort(Comparator.comparingLong(Deltas::sequence));
+        return deltas;
+    }
+
+    /**
+     * @param delta a delta file
+     * @return journal sequence number of the delta, -1 if it is not a delta
+     */
+    public static long sequence(Path delta) {
+        String name = delta.getFileName().toString();
+        int i = name.lastIndexOf(SUFFIX);
+        try {
+            return i < 0 ? -1 : Long.parseLong(name.substring(i + SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            // e.g. a temporary file
+            return -1;
+        }
+    }
+
+    /**
+     * Deletes the deltas already merged into a snapshot
+     *
+     * @param filename name of the snapshot file
+     * @param sequence journal sequence number of the snapshot
+     * @throws IOException if a delta cannot be deleted
+     */
+    public static void deleteMerged(String filename, long sequence) throws IOException {
+        for(Path p : list(filename))
+            if(sequence(p) <= sequence)
+                Files.deleteIfExists(p);
+    }
+}
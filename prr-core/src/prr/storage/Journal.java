@@ -0,0 +1,570 @@
+package prr.storage;
+
+import static prr.storage.SnapshotFormat.getString;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import prr.Network;
+import prr.exceptions.DuplicateClientKeyException;
+import prr.exceptions.DuplicateTerminalKeyException;
+import prr.exceptions.InvalidCommunicationPayment;
+import prr.exceptions.InvalidTerminalKeyException;
+import prr.exceptions.SameTerminalStateException;
+import prr.exceptions.UnavailableTerminalException;
+import prr.exceptions.UnknownClientKeyException;
+import prr.exceptions.UnknownTerminalKeyException;
+import prr.exceptions.UnsupportedOperationException;
+import prr.terminals.TerminalState;
+
+/**
+ * Append-only journal of the operations that change a Network.
+ * <p>
+ * Every operation is appended as a small record tagged with a sequence
+ * number. Records are buffered and made durable in groups, either when
+ * {@link #GROUP_COMMIT_RECORDS} records are pending or when
+ * {@link #commit()} is called. Durable records are not yet saved: each save
+ * of the Network appends a save record, and only the operations before the
+ * last save record belong to the saved state. A Network is recovered by
+ * reading its last snapshot and replaying the journal records that came
+ * after it, up to the last save: operations are deterministic, so replaying
+ * them reproduces the same state, failures included.
+ * <p>
+ * {@link #DISABLED} ignores every record and is used by Networks that are
+ * not associated with a file.
+ * <p>
+ * Journals are thread-safe, so a snapshot can be written and the journal
+ * rebased by a background thread while operations are still recorded.
+ */
+public class Journal implements Closeable {
+
+    /** Number of pending records that triggers a commit */
+    public static final int GROUP_COMMIT_RECORDS = 64;
+
+    /** Magic number of the journal header record ("PRRJ") */
+    static final int MAGIC = 0x5052524A;
+
+    /** Record tags */
+    static final byte TAG_HEADER = 0;
+    static final byte TAG_REGISTER_CLIENT = 1;
+    static final byte TAG_REGISTER_TERMINAL = 2;
+    static final byte TAG_ADD_FRIEND = 3;
+    static final byte TAG_REMOVE_FRIEND = 4;
+    static final byte TAG_TEXT_COMMUNICATION = 5;
+    static final byte TAG_INTERACTIVE_COMMUNICATION = 6;
+    static final byte TAG_END_COMMUNICATION = 7;
+    static final byte TAG_PAYMENT = 8;
+    static final byte TAG_STATE_CHANGE = 9;
+    static final byte TAG_NOTIFICATIONS_ON = 10;
+    static final byte TAG_NOTIFICATIONS_HANDLED = 11;
+    static final byte TAG_SAVE = 12;
+
+    /** A journal that records nothing */
+    public static final Journal DISABLED = new Journal(null, null, null, 0, 0);
+
+    /** Path of the journal file, null if disabled */
+    private Path _path;
+
+    /** Journal file, null if disabled */
+    private FileChannel _channel;
+
+    /** Output of the journal records */
+    private RecordOutput _out;
+
+    /** Size of the journal file when it was opened */
+    private long _initialSize;
+
+    /** Sequence number of the last appended record */
+    private long _sequence;
+
+    /** Records appended since the last commit */
+    private int _pending;
+
+    /** Offset of the end of the last save record, or of the header */
+    private long _savedEnd;
+
+    private Journal(Path path, FileChannel channel, RecordOutput out, long initialSize,
+                                                                        long sequence) {
+        _path = path;
+        _channel = channel;
+        _out = out;
+        _initialSize = initialSize;
+        _sequence = sequence;
+        _savedEnd = initialSize;
+    }
+
+    /**
+     * Creates an empty journal, replacing any existing journal file
+     *
+     * @param filename name of the journal file
+     * @param sequence sequence number of the last operation already in the
+     *                 snapshot this journal follows
+     * @return the new journal
+     * @throws IOException if the file cannot be created
+     */
+    public static Journal create(String filename, long sequence) throws IOException {
+        Path path = Path.of(filename);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                                                    StandardOpenOption.READ,
+                                                        StandardOpenOption.WRITE,
+                                                            StandardOpenOption.TRUNCATE_EXISTING);
+        Journal journal = new Journal(path, channel, new RecordOutput(channel), 0, sequence);
+        writeHeader(journal._out);
+        journal.commit();
+        journal._savedEnd = journal.size();
+        return journal;
+    }
+
+    /**
+     * Replays a journal over a Network read from a snapshot and reopens it
+     * for appending. The records after the last save, including any record
+     * torn by a crash, are discarded.
+     *
+     * @param filename name of the journal file
+     * @param network the Network read from the snapshot
+     * @param sequence sequence number of the snapshot
+     * @return the journal, positioned after its last save
+     * @throws IOException if the journal cannot be read
+     */
+    public static Journal recover(String filename, Network network, long sequence)
+                                                                throws IOException {
+        Path path = Path.of(filename);
+        if(!Files.exists(path))
+            return create(filename, sequence);
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ,
+                                                        StandardOpenOption.WRITE);
+        long end;
+        try {
+            end = savedEnd(new RecordInput(channel));
+            channel.position(0);
+            RecordInput in = new RecordInput(channel);
+            in.nextRecord();
+            while(in.getPosition() < end) {
+                ByteBuffer record = in.nextRecord();
+                byte tag = record.get();
+                long recordSequence = record.getLong();
+                if(tag != TAG_SAVE && recordSequence > sequence) {
+                    replay(tag, record, network);
+                    sequence = recordSequence;
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            channel.close();
+            throw new StreamCorruptedException("damaged journal record");
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        channel.truncate(end);
+        channel.position(end);
+        return new Journal(path, channel, new RecordOutput(channel), end, sequence);
+    }
+
+    /**
+     * Checks the header of a journal and finds the end of its last save. A
+     * record torn by a crash ends the journal.
+     *
+     * @param in the records of the journal
+     * @return offset of the end of the last save record, or of the header
+     * @throws IOException if the journal cannot be read or has no valid header
+     */
+    private static long savedEnd(RecordInput in) throws IOException {
+        if(!isHeader(in.nextRecord()))
+            throw new StreamCorruptedException("not a network journal");
+        long end = in.getPosition();
+        try {
+            ByteBuffer record;
+            while((record = in.nextRecord()) != null) {
+                if(record.get() == TAG_SAVE)
+                    end = in.getPosition();
+            }
+        } catch (StreamCorruptedException | EOFException e) {
+            // torn record: the journal ends at the last complete record
+        }
+        return end;
+    }
+
+    /**
+     * Finds the sequence number of the last record of a journal, without
+     * replaying it
+     *
+     * @param filename name of the journal file
+     * @return sequence number of the last complete record, or 0 if there is
+     *         no journal or it is not a network journal
+     * @throws IOException if the journal cannot be read
+     */
+    public static long lastSequence(String filename) throws IOException {
+        Path path = Path.of(filename);
+        if(!Files.exists(path))
+            return 0;
+        long sequence = 0;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            RecordInput in = new RecordInput(channel);
+            if(!isHeader(in.nextRecord()))
+                return 0;
+            ByteBuffer record;
+            while((record = in.nextRecord()) != null) {
+                if(record.remaining() >= 1 + Long.BYTES)
+                    sequence = Math.max(sequence, record.getLong(1));
+            }
+        } catch (StreamCorruptedException | EOFException e) {
+            // torn record: the journal ends at the last complete record
+        }
+        return sequence;
+    }
+
+    /**
+     * @return sequence number of the last recorded operation
+     */
+    public synchronized long getSequence() {
+        return _sequence;
+    }
+
+    /**
+     * @return size in bytes of the journal, including pending records
+     */
+    public synchronized long size() {
+        return _out == null ? 0 : _initialSize + _out.getBytesWritten() + _out.getBufferedBytes();
+    }
+
+    /**
+     * Writes pending records and forces them to disk
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void commit() throws IOException {
+        if(_out == null)
+            return;
+        _out.flush();
+        _channel.force(false);
+        _pending = 0;
+    }
+
+    /**
+     * Appends a save record and commits, so every operation recorded so far
+     * belongs to the saved state
+     *
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized void save() throws IOException {
+        if(_out == null)
+            return;
+        _out.beginRecord(TAG_SAVE);
+        _out.writeLong(_sequence);
+        _out.endRecord();
+        commit();
+        _savedEnd = _initialSize + _out.getBytesWritten();
+    }
+
+    /**
+     * Discards the records after the last save and closes the journal file
+     *
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if(_channel == null || !_channel.isOpen())
+            return;
+        try {
+            _channel.truncate(_savedEnd);
+            _channel.force(false);
+        } finally {
+            _channel.close();
+        }
+    }
+
+    /**
+     * Writes pending records, without forcing them to disk, and returns the
+     * current end of the journal. A snapshot taken now reflects every record
+     * before the mark.
+     *
+     * @return offset of the end of the journal
+     * @throws IOException if the journal cannot be written
+     */
+    public synchronized long mark() throws IOException {
+        if(_out == null)
+            return 0;
+        _out.flush();
+        return _initialSize + _out.getBytesWritten();
+    }
+
+    /**
+     * Moves the journal to a new file that keeps only the records after the
+     * given mark, once a snapshot reflecting the earlier records is safely
+     * written. The new file atomically replaces any file with the same name,
+     * and records can be appended while the journal is being rebased from
+     * another thread.
+     *
+     * @param mark offset returned by {@link #mark()}
+     * @param filename name of the new journal file
+     * @throws IOException if the new file cannot be written, in which case
+     *                     the journal is left unchanged
+     */
+    public synchronized void rebase(long mark, String filename) throws IOException {
+        if(_out == null)
+            return;
+        _out.flush();
+        long end = _initialSize + _out.getBytesWritten();
+        FileChannel channel = SnapshotWriter.openTemporary(filename);
+        long saved;
+        try {
+            RecordOutput out = new RecordOutput(channel);
+            writeHeader(out);
+            out.flush();
+            // a save made while the snapshot was written moves along with its records
+            saved = channel.position() + Math.max(0, _savedEnd - mark);
+            for(long position = mark; position < end; )
+                position += _channel.transferTo(position, end - position, channel);
+            channel.force(false);
+            SnapshotWriter.replaceWithTemporary(filename);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        Path path = Path.of(filename);
+        _channel.close();
+        if(!path.equals(_path))
+            Files.deleteIfExists(_path);
+        _path = path;
+        _channel = channel;
+        _out = new RecordOutput(channel);
+        _initialSize = channel.position();
+        _pending = 0;
+        _savedEnd = saved;
+    }
+
+    public synchronized void logRegisterClient(String key, String name, int taxId) {
+        if(begin(TAG_REGISTER_CLIENT)) {
+            _out.writeString(key);
+            _out.writeString(name);
+            _out.writeInt(taxId);
+            end();
+        }
+    }
+
+    /**
+     * @param state initial state of the Terminal, null for the default state
+     */
+    public synchronized void logRegisterTerminal(String key, String type, String ownerKey,
+                                                                    TerminalState state) {
+        if(begin(TAG_REGISTER_TERMINAL)) {
+            _out.writeString(key);
+            _out.writeString(type);
+            _out.writeString(ownerKey);
+            _out.writeByte(SnapshotFormat.stateCode(state));
+            end();
+        }
+    }
+
+    public synchronized void logAddFriend(String terminalKey, String friendKey) {
+        logTerminalPair(TAG_ADD_FRIEND, terminalKey, friendKey);
+    }
+
+    public synchronized void logRemoveFriend(String terminalKey, String friendKey) {
+        logTerminalPair(TAG_REMOVE_FRIEND, terminalKey, friendKey);
+    }
+
+    public synchronized void logTextCommunication(String terminalKey, String destinationKey,
+                                                                            String text) {
+        if(begin(TAG_TEXT_COMMUNICATION)) {
+            _out.writeString(terminalKey);
+            _out.writeString(destinationKey);
+            _out.writeString(text);
+            end();
+        }
+    }
+
+    public synchronized void logInteractiveCommunication(String terminalKey, String destinationKey,
+                                                                        String commType) {
+        if(begin(TAG_INTERACTIVE_COMMUNICATION)) {
+            _out.writeString(terminalKey);
+            _out.writeString(destinationKey);
+            _out.writeString(commType);
+            end();
+        }
+    }
+
+    public synchronized void logEndInteractiveCommunication(String terminalKey, int duration) {
+        logTerminalInt(TAG_END_COMMUNICATION, terminalKey, duration);
+    }
+
+    public synchronized void logPayment(String terminalKey, int communicationNumber) {
+        logTerminalInt(TAG_PAYMENT, terminalKey, communicationNumber);
+    }
+
+    public synchronized void logStateChange(String terminalKey, TerminalState state) {
+        if(begin(TAG_STATE_CHANGE)) {
+            _out.writeString(terminalKey);
+            _out.writeByte(SnapshotFormat.stateCode(state));
+            end();
+        }
+    }
+
+    public synchronized void logNotificationsOn(String clientKey, boolean on) {
+        if(begin(TAG_NOTIFICATIONS_ON)) {
+            _out.writeString(clientKey);
+            _out.writeBoolean(on);
+            end();
+        }
+    }
+
+    public synchronized void logNotificationsHandled(String clientKey) {
+        if(begin(TAG_NOTIFICATIONS_HANDLED)) {
+            _out.writeString(clientKey);
+            end();
+        }
+    }
+
+    private void logTerminalPair(byte tag, String terminalKey, String otherKey) {
+        if(begin(tag)) {
+            _out.writeString(terminalKey);
+            _out.writeString(otherKey);
+            end();
+        }
+    }
+
+    private void logTerminalInt(byte tag, String terminalKey, int value) {
+        if(begin(tag)) {
+            _out.writeString(terminalKey);
+            _out.writeInt(value);
+            end();
+        }
+    }
+
+    /** Starts a record, unless the journal is disabled */
+    private boolean begin(byte tag) {
+        if(_out == null)
+            return false;
+        _out.beginRecord(tag);
+        _out.writeLong(++_sequence);
+        return true;
+    }
+
+    /** Ends a record, committing the group if it is full */
+    private void end() {
+        try {
+            _out.endRecord();
+            if(++_pending >= GROUP_COMMIT_RECORDS)
+                commit();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeHeader(RecordOutput out) throws IOException {
+        out.beginRecord(TAG_HEADER);
+        out.writeInt(MAGIC);
+        out.endRecord();
+    }
+
+    /** @return true if the record is the header of a network journal */
+    private static boolean isHeader(ByteBuffer header) {
+        return header != null && header.remaining() >= 1 + Integer.BYTES
+                    && header.get() == TAG_HEADER && header.getInt() == MAGIC;
+    }
+
+    /**
+     * Performs the operation of a record over the Network. The record is
+     * decoded first, so a damaged record is reported, while operations that
+     * failed when they were recorded fail again with the same domain
+     * exception and are ignored. Any other failure means the record does not
+     * fit the Network, and is reported.
+     */
+    private static void replay(byte tag, ByteBuffer b, Network network) throws IOException {
+        Operation operation = switch(tag) {
+            case TAG_REGISTER_CLIENT -> {
+                String key = getString(b), name = getString(b);
+                int taxId = b.getInt();
+                yield () -> network.registerClient(key, name, taxId);
+            }
+            case TAG_REGISTER_TERMINAL -> {
+                String key = getString(b), type = getString(b), owner = getString(b);
+                TerminalState state = SnapshotFormat.state(b.get());
+                yield () -> {
+                    if(state == null)
+                        network.registerTerminal(key, type, owner);
+                    else
+                        network.registerTerminalFromImport(key, type, owner, state);
+                };
+            }
+            case TAG_ADD_FRIEND -> {
+                String key = getString(b), friend = getString(b);
+                yield () -> network.getTerminalByKey(key).addFriend(friend, network);
+            }
+            case TAG_REMOVE_FRIEND -> {
+                String key = getString(b), friend = getString(b);
+                yield () -> network.getTerminalByKey(key).removeFriend(friend, network);
+            }
+            case TAG_TEXT_COMMUNICATION -> {
+                String key = getString(b), destination = getString(b), text = getString(b);
+                yield () -> network.getTerminalByKey(key)
+                                    .sendTextCommunication(destination, text, network);
+            }
+            case TAG_INTERACTIVE_COMMUNICATION -> {
+                String key = getString(b), destination = getString(b), type = getString(b);
+                yield () -> network.getTerminalByKey(key)
+                                    .sendInteractiveCommunication(destination, type, network);
+            }
+            case TAG_END_COMMUNICATION -> {
+                String key = getString(b);
+                int duration = b.getInt();
+                yield () -> network.getTerminalByKey(key)
+                                    .endInteractiveCommunication(duration, network);
+            }
+            case TAG_PAYMENT -> {
+                String key = getString(b);
+                int number = b.getInt();
+                yield () -> network.getTerminalByKey(key).payCommunication(number, network);
+            }
+            case TAG_STATE_CHANGE -> {
+                String key = getString(b);
+                TerminalState state = SnapshotFormat.state(b.get());
+                yield () -> network.getTerminalByKey(key).changeTerminalState(state, network);
+            }
+            case TAG_NOTIFICATIONS_ON -> {
+                String key = getString(b);
+                boolean on = b.get() != 0;
+                yield () -> network.setNotificationsOn(network.getClientByKey(key), on);
+            }
+            case TAG_NOTIFICATIONS_HANDLED -> {
+                String key = getString(b);
+                yield () -> network.getUnhandledNotifications(network.getClientByKey(key));
+            }
+            default ->
+                throw new StreamCorruptedException("unknown journal record " + tag);
+        };
+
+        try {
+            operation.perform();
+        } catch (DuplicateClientKeyException | DuplicateTerminalKeyException
+                    | InvalidTerminalKeyException | UnknownClientKeyException
+                    | UnknownTerminalKeyException | UnavailableTerminalException
+                    | UnsupportedOperationException | SameTerminalStateException
+                    | InvalidCommunicationPayment e) {
+            // the operation failed in the same way when it was recorded
+        } catch (RuntimeException e) {
+            throw new IOException("cannot replay journal record " + tag, e);
+        }
+    }
+
+    /** A decoded journal operation */
+    @FunctionalInterface
+    private interface Operation {
+        void perform() throws DuplicateClientKeyException, DuplicateTerminalKeyException,
+                                InvalidTerminalKeyException, UnknownClientKeyException,
+                                UnknownTerminalKeyException, UnavailableTerminalException,
+                                UnsupportedOperationException, SameTerminalStateException,
+                                InvalidCommunicationPayment;
+    }
+}
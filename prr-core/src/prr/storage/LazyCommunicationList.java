@@ -0,0 +1,86 @@
+package prr.storage;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+import prr.Network;
+import prr.communications.Communication;
+
+/**
+ * List of the Communications of a Terminal read from a {@link MappedSnapshot}.
+ * The list only holds Communication numbers until it is first used, when
+ * every Communication is decoded; it then behaves as an {@link ArrayList}.
+ * Like every lookup in the snapshot, the Communications are decoded holding
+ * the Network's monitor, by the first thread using the list.
+ */
+class LazyCommunicationList extends AbstractList<Communication> implements RandomAccess {
+
+    /** Snapshot the Communications are decoded from, until they are */
+    private MappedSnapshot _snapshot;
+
+    /** Network whose monitor is held while the Communications are decoded */
+    private final Network _network;
+
+    /** Numbers of the Communications */
+    private final int[] _numbers;
+
+    /** The decoded Communications, null until first used */
+    private volatile List<Communication> _communications;
+
+    /**
+     * @param snapshot snapshot holding the Communications
+     * @param numbers numbers of the Communications, in list order
+     */
+    LazyCommunicationList(MappedSnapshot snapshot, int[] numbers) {
+        _snapshot = snapshot;
+        _network = snapshot.getNetwork();
+        _numbers = numbers;
+    }
+
+    /** @return the decoded Communications */
+    private List<Communication> communications() {
+        List<Communication> communications = _communications;
+        if(communications != null)
+            return communications;
+        synchronized(_network) {
+            if(_communications == null) {
+                communications = new ArrayList<>(_numbers.length);
+                for(int number : _numbers)
+                    communications.add(_snapshot.getCommunication(number));
+                _communications = communications;
+                _snapshot = null;
+            }
+            return _communications;
+        }
+    }
+
+    @Override
+    public int size() {
+        List<Communication> communications = _communications;
+        return communications == null ? _numbers.length : communications.size();
+    }
+
+    @Override
+    public Communication get(int index) {
+        return communications().get(index);
+    }
+
+    @Override
+    public Communication set(int index, Communication c) {
+        return communications().set(index, c);
+    }
+
+    @Override
+    public void add(int index, Communication c) {
+        communications().add(index, c);
+        modCount++;
+    }
+
+    @Override
+    public Communication remove(int index) {
+        modCount++;
+        return communications().remove(index);
+    }
+}
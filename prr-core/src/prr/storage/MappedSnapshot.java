@@ -0,0 +1,270 @@
+package prr.storage;
+
+import static prr.storage.SnapshotFormat.*;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeSet;
+
+import prr.Network;
+import prr.clients.Client;
+import prr.communications.Communication;
+import prr.communications.InteractiveCommunication;
+import prr.exceptions.UnknownClientKeyException;
+import prr.exceptions.UnknownTerminalKeyException;
+import prr.terminals.Terminal;
+
+/**
+ * A snapshot, and the deltas written after it, mapped in memory. Entities
+ * are only decoded when the Network first asks for them.
+ * <p>
+ * Records are found by binary search over the index of each segment, from
+ * the newest delta to the snapshot, so the newest record of each entity is
+ * the one decoded. A Client is always decoded together with its Terminals,
+ * which are registered in the Network before the Terminals and Clients they
+ * refer to are resolved, so cyclic references are resolved without
+ * recursion. Communications are only decoded when a list of Communications
+ * of a Terminal is first used.
+ * <p>
+ * The snapshot is only used holding the monitor of its Network, as its
+ * lookups are.
+ */
+public class MappedSnapshot {
+
+    /** The mapped segments, newest first */
+    private final List<Segment> _segments;
+
+    /** The Network the entities are decoded into */
+    private final Network _network;
+
+    /** Keys of the Clients already decoded */
+    private final Set<String> _loaded = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+
+    /** Communications already decoded, by number */
+    private final Map<Integer, Communication> _decoded = new HashMap<>();
+
+    /** Terminals whose references are not yet resolved, with their records */
+    private final Queue<Pending> _pending = new ArrayDeque<>();
+
+    /** Depth of nested lookups; references are resolved by the outermost one */
+    private int _depth;
+
+    /** A Terminal record waiting for its references to be resolved */
+    private record Pending(Terminal terminal, ByteBuffer record) {}
+
+    /**
+     * @param segments the snapshot followed by its deltas, oldest first
+     * @param network the Network the entities are decoded into
+     */
+    MappedSnapshot(List<Segment> segments, Network network) {
+        _segments = new ArrayList<>(segments);
+        Collections.reverse(_segments);
+        _network = network;
+    }
+
+    /**
+     * Returns the Client with the given key, decoding it and its Terminals if
+     * needed
+     *
+     * @param key the Client key
+     * @return the Client, or null if the snapshot has no such Client
+     */
+    public Client getClient(String key) {
+        _depth++;
+        try {
+            if(_loaded.contains(key))
+                return _network.getClientByKey(key);
+            for(Segment s : _segments) {
+                int i = s.findClient(key);
+                if(i >= 0)
+                    return loadClient(s.client(i));
+            }
+            return null;
+        } catch (StreamCorruptedException e) {
+            throw corrupted(e);
+        } catch (UnknownClientKeyException e) {
+            throw corrupted(new StreamCorruptedException("lost client " + key));
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Returns the Terminal with the given key, decoding it, its owner and
+     * the other Terminals of its owner if needed
+     *
+     * @param key the Terminal key
+     * @return the Terminal, or null if the snapshot has no such Terminal
+     */
+    public Terminal getTerminal(String key) {
+        _depth++;
+        try {
+            ByteBuffer b = findTerminal(key);
+            if(b == null)
+                return null;
+            b.position(2);
+            getString(b);
+            String owner = getString(b);
+            if(getClient(owner) == null)
+                throw new StreamCorruptedException("unknown owner " + owner);
+            return _network.getTerminalByKey(key);
+        } catch (IOException e) {
+            throw corrupted(e);
+        } catch (UnknownTerminalKeyException e) {
+            throw corrupted(new StreamCorruptedException("lost terminal " + key));
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Decodes every Client and Terminal not yet decoded
+     */
+    public void loadAll() {
+        _depth++;
+        try {
+            for(Segment s : _segments)
+                for(int i = 0; i < s.clients(); i++) {
+                    String key = s.clientKey(i);
+                    if(!_loaded.contains(key))
+                        getClient(key);
+                }
+        } catch (StreamCorruptedException e) {
+            throw corrupted(e);
+        } finally {
+            exit();
+        }
+    }
+
+    /** @return the Network the entities are decoded into */
+    Network getNetwork() { return _network; }
+
+    /**
+     * Returns the Communication with the given number, decoding it if needed
+     *
+     * @param number the Communication number
+     * @return the Communication
+     */
+    Communication getCommunication(int number) {
+        synchronized(_network) {
+            Communication c = _decoded.get(number);
+            if(c != null)
+                return c;
+
+            _depth++;
+            try {
+                for(Segment s : _segments) {
+                    int i = s.findCommunication(number);
+                    if(i >= 0) {
+                        c = SnapshotCodec.readCommunication(s.communication(i).position(1), _network);
+                        _decoded.put(number, c);
+                        return c;
+                    }
+                }
+                throw new StreamCorruptedException("unknown communication " + number);
+            } catch (IOException e) {
+                throw corrupted(e);
+            } catch (BufferUnderflowException e) {
+                throw corrupted(new StreamCorruptedException("truncated record"));
+            } finally {
+                exit();
+            }
+        }
+    }
+
+    /** @return the newest record of the Terminal with given key, or null */
+    private ByteBuffer findTerminal(String key) throws StreamCorruptedException {
+        for(Segment s : _segments) {
+            int i = s.findTerminal(key);
+            if(i >= 0)
+                return s.terminal(i);
+        }
+        return null;
+    }
+
+    /**
+     * Decodes a Client record and its Terminals, leaving the references of
+     * the Terminals to be resolved
+     */
+    private Client loadClient(ByteBuffer b) {
+        try {
+            b.position(1);
+            Client c = SnapshotCodec.readClient(b);
+            _loaded.add(c.getKey());
+            _network.restoreClient(c);
+            for(int n = b.getInt(); n > 0; n--) {
+                String key = getString(b);
+                ByteBuffer record = findTerminal(key);
+                if(record == null)
+                    throw new StreamCorruptedException("unknown terminal " + key);
+                record.position(1);
+                Terminal t = SnapshotCodec.readTerminal(record, _network);
+                _network.restoreTerminal(t);
+                _pending.add(new Pending(t, record));
+            }
+            return c;
+        } catch (IOException e) {
+            throw corrupted(e);
+        } catch (BufferUnderflowException e) {
+            throw corrupted(new StreamCorruptedException("truncated record"));
+        }
+    }
+
+    /**
+     * Resolves the references of a decoded Terminal. Its Communications are
+     * only decoded when first used.
+     */
+    private void resolve(Pending p) {
+        try {
+            ByteBuffer b = p.record();
+            Terminal t = p.terminal();
+            int active = b.getInt();
+            SnapshotCodec.readTerminalLinks(b, t, _network);
+            t.restoreCommunications(
+                new LazyCommunicationList(this, SnapshotCodec.readNumbers(b)),
+                    new LazyCommunicationList(this, SnapshotCodec.readNumbers(b)));
+            if(active != 0) {
+                if(!(getCommunication(active) instanceof InteractiveCommunication c))
+                    throw new StreamCorruptedException("bad active communication " + active);
+                t.setActiveCommunication(c);
+            }
+        } catch (IOException e) {
+            throw corrupted(e);
+        } catch (BufferUnderflowException e) {
+            throw corrupted(new StreamCorruptedException("truncated record"));
+        }
+    }
+
+    /** Leaves a lookup, resolving pending references if it is the outermost */
+    private void exit() {
+        if(_depth > 1) {
+            _depth--;
+            return;
+        }
+        try {
+            while(!_pending.isEmpty())
+                resolve(_pending.remove());
+        } finally {
+            _depth--;
+        }
+    }
+
+    /**
+     * The segments were checked when they were mapped, so a damaged record
+     * found later can only be reported as an unchecked error
+     */
+    private static UncheckedIOException corrupted(IOException e) {
+        return new UncheckedIOException("damaged snapshot", e);
+    }
+}
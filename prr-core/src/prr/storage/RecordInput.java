@@ -0,0 +1,89 @@
+package prr.storage;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the length-prefixed records written by {@link RecordOutput}.
+ */
+class RecordInput {
+
+    /** Source channel */
+    private final ReadableByteChannel _channel;
+
+    /** Bytes read from the channel and not yet consumed */
+    private ByteBuffer _buffer = ByteBuffer.allocate(RecordOutput.BUFFER_SIZE);
+
+    /** True once the channel reported its end */
+    private boolean _eof;
+
+    /** Number of bytes of complete records returned so far */
+    private long _position;
+
+    /**
+     * @param channel channel holding the records
+     */
+    RecordInput(ReadableByteChannel channel) {
+        _channel = channel;
+        _buffer.flip();
+    }
+
+    /**
+     * Returns the next record. The returned buffer starts at the record tag
+     * and is only valid until the next call.
+     *
+     * @return the next record or null if there are no more records
+     * @throws IOException if the channel cannot be read or the last record
+     *                     is truncated
+     */
+    ByteBuffer nextRecord() throws IOException {
+        if(!fill(Integer.BYTES)) {
+            if(_buffer.hasRemaining())
+                throw new EOFException("truncated record length");
+            return null;
+        }
+        int length = _buffer.getInt();
+        if(length <= 0)
+            throw new StreamCorruptedException("bad record length " + length);
+        if(!fill(length))
+            throw new EOFException("truncated record");
+
+        ByteBuffer record = _buffer.slice(_buffer.position(), length);
+        _buffer.position(_buffer.position() + length);
+        _position += Integer.BYTES + length;
+        return record;
+    }
+
+    /**
+     * @return number of bytes taken by the records returned so far
+     */
+    long getPosition() {
+        return _position;
+    }
+
+    /**
+     * Makes sure at least n bytes are available in the buffer
+     *
+     * @return false if the channel ended first
+     */
+    private boolean fill(int n) throws IOException {
+        if(_buffer.remaining() >= n)
+            return true;
+        if(_buffer.capacity() < n) {
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(n, _buffer.capacity() * 2));
+            bigger.put(_buffer);
+            _buffer = bigger;
+        } else {
+            _buffer.compact();
+        }
+        while(_buffer.position() < n && !_eof) {
+            if(_channel.read(_buffer) < 0)
+                _eof = true;
+        }
+        _buffer.flip();
+        return _buffer.remaining() >= n;
+    }
+}
@@ -0,0 +1,173 @@
+package prr.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes length-prefixed records to a channel.
+ * <p>
+ * A record is composed in a growable scratch buffer between
+ * {@link #beginRecord(byte)} and {@link #endRecord()}, and then copied with
+ * its length into a direct buffer that is drained to the channel whenever
+ * it fills up.
+ */
+class RecordOutput implements Closeable {
+
+    /** Size of the buffer drained to the channel */
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /** Destination channel */
+    private final WritableByteChannel _channel;
+
+    /** Buffer of complete records not yet written to the channel */
+    private final ByteBuffer _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /** Record being composed */
+    private ByteBuffer _record = ByteBuffer.allocate(256);
+
+    /** Total of bytes handed to the channel */
+    private long _bytesWritten;
+
+    /**
+     * @param channel channel receiving the records
+     */
+    RecordOutput(WritableByteChannel channel) {
+        _channel = channel;
+    }
+
+    /**
+     * Starts a new record
+     *
+     * @param tag the record tag
+     */
+    void beginRecord(byte tag) {
+        _record.clear();
+        _record.put(tag);
+    }
+
+    void writeByte(byte b) {
+        ensure(Byte.BYTES).put(b);
+    }
+
+    void writeBoolean(boolean b) {
+        writeByte(b ? (byte) 1 : (byte) 0);
+    }
+
+    void writeInt(int i) {
+        ensure(Integer.BYTES).putInt(i);
+    }
+
+    void writeLong(long l) {
+        ensure(Long.BYTES).putLong(l);
+    }
+
+    void writeDouble(double d) {
+        ensure(Double.BYTES).putDouble(d);
+    }
+
+    /**
+     * Writes a string as its UTF-8 length followed by its bytes
+     *
+     * @param s the string
+     */
+    void writeString(String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        ensure(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes);
+    }
+
+    /**
+     * Copies a complete record, e.g. from another file
+     *
+     * @param record the record, starting at its tag
+     * @throws IOException if the channel cannot be written
+     */
+    void copyRecord(ByteBuffer record) throws IOException {
+        _record.clear();
+        ensure(record.remaining()).put(record.duplicate());
+        endRecord();
+    }
+
+    /**
+     * Finishes the current record, queueing it for the channel
+     *
+     * @throws IOException if the channel cannot be written
+     */
+    void endRecord() throws IOException {
+        _record.flip();
+        if(_buffer.remaining() < Integer.BYTES)
+            drain();
+        _buffer.putInt(_record.remaining());
+        while(_record.hasRemaining()) {
+            if(!_buffer.hasRemaining())
+                drain();
+            int n = Math.min(_buffer.remaining(), _record.remaining());
+            int limit = _record.limit();
+            _record.limit(_record.position() + n);
+            _buffer.put(_record);
+            _record.limit(limit);
+        }
+    }
+
+    /**
+     * Writes every queued record to the channel
+     *
+     * @throws IOException if the channel cannot be written
+     */
+    void flush() throws IOException {
+        drain();
+    }
+
+    /**
+     * @return number of bytes handed to the channel so far
+     */
+    long getBytesWritten() {
+        return _bytesWritten;
+    }
+
+    /**
+     * @return offset, from the start of the output, of the next record
+     */
+    long getPosition() {
+        return _bytesWritten + _buffer.position();
+    }
+
+    /**
+     * @return number of bytes of complete records not yet handed to the channel
+     */
+    long getBufferedBytes() {
+        return _buffer.position();
+    }
+
+    /**
+     * Flushes queued records. The channel itself is owned by the caller.
+     *
+     * @see java.io.Closeable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        flush();
+    }
+
+    /** Writes the contents of the direct buffer to the channel */
+    private void drain() throws IOException {
+        _buffer.flip();
+        while(_buffer.hasRemaining())
+            _bytesWritten += _channel.write(_buffer);
+        _buffer.clear();
+    }
+
+    /** Makes room for n more bytes in the current record */
+    private ByteBuffer ensure(int n) {
+        if(_record.remaining() < n) {
+            ByteBuffer bigger = ByteBuffer.allocate(
+                                    Math.max(_record.capacity() * 2, _record.position() + n));
+            _record.flip();
+            bigger.put(_record);
+            _record = bigger;
+        }
+        return _record;
+    }
+}
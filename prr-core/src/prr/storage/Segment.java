@@ -0,0 +1,199 @@
+package prr.storage;
+
+import static prr.storage.SnapshotFormat.*;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An indexed snapshot or delta mapped in memory. Its records are found by
+ * binary search over the index at its end, without reading the rest of the
+ * file.
+ */
+final class Segment {
+
+    /** Position of the key in Client and Terminal records, and of the number in Communication records */
+    private static final int CLIENT_KEY = 1, TERMINAL_KEY = 2, COMMUNICATION_NUMBER = 2;
+
+    /** The mapped file */
+    private final ByteBuffer _file;
+
+    /** Journal sequence number in the header */
+    private final long _sequence;
+
+    /** Next Communication number in the header */
+    private final int _nextNumber;
+
+    /** Offsets of the index entries */
+    private final int _clientIndex, _terminalIndex, _communicationIndex;
+
+    /** Number of entries in each part of the index */
+    private final int _clients, _terminals, _communications;
+
+    /**
+     * @param file an indexed snapshot or delta
+     * @throws StreamCorruptedException if the file has no valid header or index
+     */
+    Segment(ByteBuffer file) throws StreamCorruptedException {
+        _file = file;
+        try {
+            ByteBuffer header = record(0);
+            _sequence = SnapshotCodec.readHeader(header);
+            _nextNumber = header.getInt();
+
+            int trailer = file.limit() - TRAILER_SIZE;
+            if(trailer < 0 || file.getInt(trailer) != TRAILER_SIZE - Integer.BYTES
+                            || file.get(trailer + Integer.BYTES) != TAG_TRAILER)
+                throw new StreamCorruptedException("missing snapshot trailer");
+            long offset = file.getLong(trailer + Integer.BYTES + 1);
+            ByteBuffer index = record(offset);
+            if(index.get() != TAG_INDEX)
+                throw new StreamCorruptedException("missing snapshot index");
+
+            _clients = count(index);
+            _clientIndex = (int) offset + Integer.BYTES + 1 + Integer.BYTES;
+            skip(index, _clients);
+            _terminals = count(index);
+            _terminalIndex = _clientIndex + _clients * Long.BYTES + Integer.BYTES;
+            skip(index, _terminals);
+            _communications = count(index);
+            _communicationIndex = _terminalIndex + _terminals * Long.BYTES + Integer.BYTES;
+            skip(index, _communications);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new StreamCorruptedException("bad snapshot index");
+        }
+    }
+
+    /**
+     * Maps a file in memory
+     *
+     * @param path the file
+     * @return the mapped file
+     * @throws IOException if the file cannot be mapped
+     */
+    static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if(channel.size() > Integer.MAX_VALUE)
+                throw new IOException("file too large to map: " + path);
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /** @return journal sequence number of the segment */
+    long getSequence() { return _sequence; }
+
+    /** @return next Communication number when the segment was written */
+    int getNextNumber() { return _nextNumber; }
+
+    int clients() { return _clients; }
+
+    int terminals() { return _terminals; }
+
+    int communications() { return _communications; }
+
+    /** @return the i-th Client record, in key order, starting at its tag */
+    ByteBuffer client(int i) throws StreamCorruptedException {
+        return record(_file.getLong(_clientIndex + i * Long.BYTES));
+    }
+
+    /** @return the i-th Terminal record, in key order, starting at its tag */
+    ByteBuffer terminal(int i) throws StreamCorruptedException {
+        return record(_file.getLong(_terminalIndex + i * Long.BYTES));
+    }
+
+    /** @return the i-th Communication record, in number order, starting at its tag */
+    ByteBuffer communication(int i) throws StreamCorruptedException {
+        return record(_file.getLong(_communicationIndex + i * Long.BYTES));
+    }
+
+    /** @return key of the i-th Client */
+    String clientKey(int i) throws StreamCorruptedException {
+        return getString(client(i).position(CLIENT_KEY));
+    }
+
+    /** @return key of the i-th Terminal */
+    String terminalKey(int i) throws StreamCorruptedException {
+        return getString(terminal(i).position(TERMINAL_KEY));
+    }
+
+    /** @return number of the i-th Communication */
+    int communicationNumber(int i) throws StreamCorruptedException {
+        return communication(i).getInt(COMMUNICATION_NUMBER);
+    }
+
+    /** @return position of the Client with given key, or -1 */
+    int findClient(String key) throws StreamCorruptedException {
+        int low = 0, high = _clients - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = String.CASE_INSENSITIVE_ORDER.compare(clientKey(mid), key);
+            if(cmp == 0)
+                return mid;
+            if(cmp < 0)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return -1;
+    }
+
+    /** @return position of the Terminal with given key, or -1 */
+    int findTerminal(String key) throws StreamCorruptedException {
+        int low = 0, high = _terminals - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = String.CASE_INSENSITIVE_ORDER.compare(terminalKey(mid), key);
+            if(cmp == 0)
+                return mid;
+            if(cmp < 0)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return -1;
+    }
+
+    /** @return position of the Communication with given number, or -1 */
+    int findCommunication(int number) throws StreamCorruptedException {
+        int low = 0, high = _communications - 1;
+        while(low <= high) {
+            int mid = (low + high) >>> 1;
+            int found = communicationNumber(mid);
+            if(found == number)
+                return mid;
+            if(found < number)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return -1;
+    }
+
+    /** @return a view of the record at the given offset, starting at its tag */
+    private ByteBuffer record(long offset) throws StreamCorruptedException {
+        if(offset < 0 || offset > _file.limit() - Integer.BYTES)
+            throw new StreamCorruptedException("bad record offset " + offset);
+        int length = _file.getInt((int) offset);
+        if(length <= 0 || length > _file.limit() - offset - Integer.BYTES)
+            throw new StreamCorruptedException("bad record length " + length);
+        return _file.slice((int) offset + Integer.BYTES, length);
+    }
+
+    /** Reads the number of entries of a part of the index */
+    private static int count(ByteBuffer index) throws StreamCorruptedException {
+        int n = index.getInt();
+        if(n < 0 || n > index.remaining() / Long.BYTES)
+            throw new StreamCorruptedException("bad index size " + n);
+        return n;
+    }
+
+    /** Skips the entries of a part of the index */
+    private static void skip(ByteBuffer index, int n) {
+        index.position(index.position() + n * Long.BYTES);
+    }
+}
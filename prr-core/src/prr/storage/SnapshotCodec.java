@@ -0,0 +1,327 @@
+package prr.storage;
+
+import static prr.storage.SnapshotFormat.*;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import prr.Money;
+import prr.Network;
+import prr.clients.Client;
+import prr.clients.ClientType;
+import prr.clients.GoldType;
+import prr.clients.NormalType;
+import prr.clients.PlatinumType;
+import prr.communications.Communication;
+import prr.communications.TextCommunication;
+import prr.communications.VideoCommunication;
+import prr.communications.VoiceCommunication;
+import prr.exceptions.NoActiveCommunicationException;
+import prr.exceptions.UnknownClientKeyException;
+import prr.exceptions.UnknownTerminalKeyException;
+import prr.terminals.BasicTerminal;
+import prr.terminals.FancyTerminal;
+import prr.terminals.Terminal;
+
+/**
+ * Encodes and decodes the records of each Network entity.
+ * <p>
+ * Records only refer to other entities by key (or number, for
+ * Communications), so each one can be decoded on its own as long as the
+ * entities it refers to can be resolved.
+ */
+final class SnapshotCodec {
+
+    private SnapshotCodec() {
+        // static helpers only
+    }
+
+    /**
+     * Header format:
+     * {@code magic|version|sequence|next-communication-number|clients|terminals|communications}
+     * <p>
+     * {@code sequence} is the number of the last journal operation included
+     * in the snapshot. Version 1 headers have no sequence.
+     */
+    static void writeHeader(RecordOutput out, long sequence, int nextNumber, int clients,
+                                            int terminals, int communications) throws IOException {
+        out.beginRecord(TAG_HEADER);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(sequence);
+        out.writeInt(nextNumber);
+        out.writeInt(clients);
+        out.writeInt(terminals);
+        out.writeInt(communications);
+        out.endRecord();
+    }
+
+    /**
+     * Client format:
+     * {@code key|name|taxId|type|text|voice|video|notifications|n|(terminal|type)*n|m|terminal*m}
+     * <p>
+     * The trailing Terminal keys, added in version 3, let a Client be read
+     * together with its Terminals.
+     */
+    static void writeClient(RecordOutput out, Client c) throws IOException {
+        ClientType type = c.getClientType();
+        out.beginRecord(TAG_CLIENT);
+        out.writeString(c.getKey());
+        out.writeString(c.getName());
+        out.writeInt(c.getTaxId());
+        out.writeByte(type instanceof GoldType ? TYPE_GOLD :
+                        type instanceof PlatinumType ? TYPE_PLATINUM : TYPE_NORMAL);
+        out.writeInt(c.getConsecutiveTextComms());
+        out.writeInt(c.getConsecutiveVoiceComms());
+        out.writeInt(c.getConsecutiveVideoComms());
+        out.writeBoolean(c.notificationsOn());
+        out.writeInt(c.peekUnhandledNotifications().size());
+        for(Client.Notification n : c.peekUnhandledNotifications()) {
+            out.writeString(n.getTerminalSenderKey());
+            out.writeString(n.getNotificationType());
+        }
+        out.writeInt(c.getTerminals().size());
+        for(Terminal t : c.getTerminals())
+            out.writeString(t.getKey());
+        out.endRecord();
+    }
+
+    /**
+     * Terminal format:
+     * {@code kind|key|owner|state|state-before-busy|paid|debt|active|n|friend*n|m|observer*m|
+     * s|started*s|r|received*r}
+     * <p>
+     * {@code active} is the number of the active Communication, or 0 if none.
+     * The numbers of the started and received Communications were added in
+     * version 3.
+     */
+    static void writeTerminal(RecordOutput out, Terminal t) throws IOException {
+        out.beginRecord(TAG_TERMINAL);
+        out.writeByte(t instanceof FancyTerminal ? TERMINAL_FANCY : TERMINAL_BASIC);
+        out.writeString(t.getKey());
+        out.writeString(t.getOwner().getKey());
+        out.writeByte(stateCode(t.getState()));
+        out.writeByte(stateCode(t.getStateBeforeBusy()));
+        writeAmount(out, t.getPaidBalance());
+        writeAmount(out, t.getDebtBalance());
+        out.writeInt(activeNumber(t));
+        out.writeInt(t.getFriends().size());
+        for(String key : t.getFriends())
+            out.writeString(key);
+        out.writeInt(t.getClientsObserver().size());
+        for(Client c : t.getClientsObserver())
+            out.writeString(c.getKey());
+        writeNumbers(out, t.getStartedCommunications());
+        writeNumbers(out, t.getReceivedCommunications());
+        out.endRecord();
+    }
+
+    /** Writes the numbers of a list of Communications */
+    private static void writeNumbers(RecordOutput out, List<Communication> communications) {
+        out.writeInt(communications.size());
+        for(Communication c : communications)
+            out.writeInt(c.getNumber());
+    }
+
+    /**
+     * Writes an amount of money. Snapshots keep amounts as doubles in whole
+     * units, from which amounts in cents are read back exactly.
+     */
+    private static void writeAmount(RecordOutput out, long cents) {
+        out.writeDouble(Money.toUnits(cents));
+    }
+
+    /** @return the amount of money read, in cents */
+    private static long getAmount(ByteBuffer b) {
+        return Money.fromUnits(b.getDouble());
+    }
+
+    /**
+     * @return number of the active Communication of a Terminal, 0 if none
+     */
+    static int activeNumber(Terminal t) {
+        try {
+            return t.getActiveCommunication().getNumber();
+        } catch (NoActiveCommunicationException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Communication format:
+     * {@code kind|number|sender|receiver|units|price|flags[|text]}
+     */
+    static void writeCommunication(RecordOutput out, Communication c) throws IOException {
+        byte kind = c instanceof TextCommunication ? COMMUNICATION_TEXT :
+                        c instanceof VideoCommunication ? COMMUNICATION_VIDEO : COMMUNICATION_VOICE;
+        out.beginRecord(TAG_COMMUNICATION);
+        out.writeByte(kind);
+        out.writeInt(c.getNumber());
+        out.writeString(c.getSender().getKey());
+        out.writeString(c.getReciever().getKey());
+        out.writeInt(c.getUnits());
+        writeAmount(out, c.getPrice());
+        out.writeByte((byte) ((c.isFinished() ? FLAG_FINISHED : 0) | (c.isPaid() ? FLAG_PAID : 0)));
+        if(kind == COMMUNICATION_TEXT)
+            out.writeString(((TextCommunication) c).getText());
+        out.endRecord();
+    }
+
+    /**
+     * Index format:
+     * {@code n|client-offset*n|m|terminal-offset*m|k|communication-offset*k}
+     * <p>
+     * Clients and Terminals are in key order and Communications in number
+     * order.
+     */
+    static void writeIndex(RecordOutput out, long[] clients, long[] terminals,
+                                            long[] communications) throws IOException {
+        out.beginRecord(TAG_INDEX);
+        for(long[] offsets : new long[][] { clients, terminals, communications }) {
+            out.writeInt(offsets.length);
+            for(long offset : offsets)
+                out.writeLong(offset);
+        }
+        out.endRecord();
+    }
+
+    /**
+     * Trailer format: {@code index-offset}
+     */
+    static void writeTrailer(RecordOutput out, long indexOffset) throws IOException {
+        out.beginRecord(TAG_TRAILER);
+        out.writeLong(indexOffset);
+        out.endRecord();
+    }
+
+    /**
+     * Checks the header record and returns the journal sequence number it
+     * holds, leaving the record positioned at the next communication number
+     *
+     * @throws StreamCorruptedException if the record is not a valid header
+     */
+    static long readHeader(ByteBuffer record) throws StreamCorruptedException {
+        if(record == null || record.remaining() < 1 + 6 * Integer.BYTES
+                            || record.get() != TAG_HEADER || record.getInt() != MAGIC)
+            throw new StreamCorruptedException("not a network snapshot");
+        int version = record.getInt();
+        if(version < 1 || version > VERSION)
+            throw new StreamCorruptedException("unsupported snapshot version " + version);
+        return version >= 2 ? record.getLong() : 0;
+    }
+
+    /**
+     * Decodes a Client record positioned after its tag
+     */
+    static Client readClient(ByteBuffer b) throws StreamCorruptedException {
+        Client c = new Client(getString(b), getString(b), b.getInt());
+        ClientType type = switch(b.get()) {
+            case TYPE_NORMAL   -> NormalType.INSTANCE;
+            case TYPE_GOLD     -> GoldType.INSTANCE;
+            case TYPE_PLATINUM -> PlatinumType.INSTANCE;
+            default ->
+                throw new StreamCorruptedException("unknown client type");
+        };
+        c.setClientType(type);
+        c.restoreConsecutiveComms(b.getInt(), b.getInt(), b.getInt());
+        c.setNotificationsOn(b.get() != 0);
+        for(int n = b.getInt(); n > 0; n--)
+            c.notify(c.new Notification(getString(b), getString(b)));
+        return c;
+    }
+
+    /**
+     * Decodes the fixed part of a Terminal record positioned after its tag,
+     * up to the number of its active Communication, which is left in the
+     * buffer. Friends and observers follow it, see
+     * {@link #readTerminalLinks(ByteBuffer, Terminal, Network)}.
+     */
+    static Terminal readTerminal(ByteBuffer b, Network network) throws StreamCorruptedException {
+        byte kind = b.get();
+        String key = getString(b);
+        Client owner;
+        try {
+            owner = network.getClientByKey(getString(b));
+        } catch (UnknownClientKeyException e) {
+            throw new StreamCorruptedException("unknown owner " + e.getKey());
+        }
+        Terminal t = switch(kind) {
+            case TERMINAL_BASIC -> new BasicTerminal(key, owner, state(b.get()));
+            case TERMINAL_FANCY -> new FancyTerminal(key, owner, state(b.get()));
+            default ->
+                throw new StreamCorruptedException("unknown terminal kind " + kind);
+        };
+        t.setTerminalStateBeforeBusy(state(b.get()));
+        long paid = getAmount(b);
+        t.restoreBalance(paid, getAmount(b));
+        return t;
+    }
+
+    /**
+     * Decodes the friends and observers of a Terminal record, once every
+     * Terminal they refer to can be resolved. The buffer must be positioned
+     * after the number of the active Communication.
+     */
+    static void readTerminalLinks(ByteBuffer b, Terminal t, Network network)
+                                                    throws StreamCorruptedException {
+        try {
+            for(int n = b.getInt(); n > 0; n--) {
+                Terminal friend = network.getTerminalByKey(getString(b));
+                t.getFriends().add(friend.getKey());
+            }
+            for(int n = b.getInt(); n > 0; n--)
+                t.getClientsObserver().add(network.getClientByKey(getString(b)));
+        } catch (UnknownTerminalKeyException e) {
+            throw new StreamCorruptedException("unknown friend " + e.getKey());
+        } catch (UnknownClientKeyException e) {
+            throw new StreamCorruptedException("unknown observer " + e.getKey());
+        }
+    }
+
+    /**
+     * Decodes the numbers of the started or received Communications of a
+     * Terminal record, following its friends and observers
+     */
+    static int[] readNumbers(ByteBuffer b) throws StreamCorruptedException {
+        int n = b.getInt();
+        if(n < 0 || n > b.remaining() / Integer.BYTES)
+            throw new StreamCorruptedException("bad communication count " + n);
+        int[] numbers = new int[n];
+        for(int i = 0; i < n; i++)
+            numbers[i] = b.getInt();
+        return numbers;
+    }
+
+    /**
+     * Decodes a Communication record positioned after its tag. The caller adds
+     * it to the Communications of its Terminals and sets active
+     * Communications, from the Terminal records.
+     */
+    static Communication readCommunication(ByteBuffer b, Network network)
+                                                    throws StreamCorruptedException {
+        byte kind = b.get();
+        Integer number = b.getInt();
+        Terminal sender, receiver;
+        try {
+            sender = network.getTerminalByKey(getString(b));
+            receiver = network.getTerminalByKey(getString(b));
+        } catch (UnknownTerminalKeyException e) {
+            throw new StreamCorruptedException("unknown terminal " + e.getKey());
+        }
+        Integer units = b.getInt();
+        long price = getAmount(b);
+        byte flags = b.get();
+
+        Communication c = switch(kind) {
+            case COMMUNICATION_TEXT  -> new TextCommunication(number, sender, receiver, getString(b));
+            case COMMUNICATION_VOICE -> new VoiceCommunication(number, sender, receiver);
+            case COMMUNICATION_VIDEO -> new VideoCommunication(number, sender, receiver);
+            default ->
+                throw new StreamCorruptedException("unknown communication kind " + kind);
+        };
+        c.restore(units, price, (flags & FLAG_FINISHED) != 0, (flags & FLAG_PAID) != 0);
+        return c;
+    }
+}
@@ -0,0 +1,146 @@
+package prr.storage;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Merges a snapshot and its deltas into a new snapshot.
+ * <p>
+ * The merge works on records only, without decoding entities, so it can run
+ * in the background while the Network keeps changing. The segments are
+ * sorted by key, so each kind of record is merged in a single pass over all
+ * of them, keeping the newest record of every entity.
+ */
+public class SnapshotCompactor {
+
+    /** Kinds of records, in file order */
+    private enum Kind { CLIENT, TERMINAL, COMMUNICATION }
+
+    /** Snapshot followed by its deltas, oldest first */
+    private final List<Segment> _segments = new ArrayList<>();
+
+    /** Name of the snapshot file */
+    private final String _filename;
+
+    /**
+     * @param filename name of the snapshot file
+     */
+    public SnapshotCompactor(String filename) {
+        _filename = filename;
+    }
+
+    /**
+     * Replaces the snapshot by the merge of the snapshot and its deltas, and
+     * deletes the merged deltas. The new snapshot replaces the previous one
+     * atomically, and deltas are only deleted after that, so a crash leaves
+     * either the previous snapshot and its deltas or the new snapshot.
+     *
+     * @param listener receives the progress of the new snapshot
+     * @return size of the new snapshot, or -1 if there was nothing to merge
+     * @throws IOException if the files cannot be read or written
+     */
+    public long compact(SnapshotListener listener) throws IOException {
+        Segment base = new Segment(Segment.map(Path.of(_filename)));
+        _segments.add(base);
+        for(Path p : Deltas.list(_filename))
+            if(Deltas.sequence(p) > base.getSequence())
+                _segments.add(new Segment(Segment.map(p)));
+        if(_segments.size() == 1) {
+            Deltas.deleteMerged(_filename, base.getSequence());
+            return -1;
+        }
+        Segment newest = _segments.get(_segments.size() - 1);
+
+        long size;
+        try (FileChannel channel = SnapshotWriter.openTemporary(_filename)) {
+            RecordOutput out = new RecordOutput(channel);
+            long[][] offsets = new long[Kind.values().length][];
+            for(Kind kind : Kind.values())
+                offsets[kind.ordinal()] = new long[merge(kind, null, null)];
+
+            SnapshotCodec.writeHeader(out, newest.getSequence(), newest.getNextNumber(),
+                                        offsets[0].length, offsets[1].length, offsets[2].length);
+            for(Kind kind : Kind.values())
+                merge(kind, out, offsets[kind.ordinal()]);
+            long index = out.getPosition();
+            SnapshotCodec.writeIndex(out, offsets[0], offsets[1], offsets[2]);
+            SnapshotCodec.writeTrailer(out, index);
+            out.flush();
+            channel.force(true);
+            size = out.getBytesWritten();
+        }
+        SnapshotWriter.replaceWithTemporary(_filename);
+        listener.snapshotProgress(_filename, size, size);
+        Deltas.deleteMerged(_filename, newest.getSequence());
+        return size;
+    }
+
+    /**
+     * Merges the records of one kind, keeping the newest record of each key
+     *
+     * @param kind the kind of records
+     * @param out where records are copied, or null to only count them
+     * @param offsets receives the offset of each record copied
+     * @return number of merged records
+     */
+    private int merge(Kind kind, RecordOutput out, long[] offsets) throws IOException {
+        int n = _segments.size();
+        int[] next = new int[n];
+        Object[] heads = new Object[n];
+        for(int s = 0; s < n; s++)
+            heads[s] = key(kind, s, 0);
+
+        int count = 0;
+        while(true) {
+            // smallest key, taken from the newest segment holding it
+            int chosen = -1;
+            for(int s = n - 1; s >= 0; s--)
+                if(heads[s] != null && (chosen < 0 || compare(heads[s], heads[chosen]) < 0))
+                    chosen = s;
+            if(chosen < 0)
+                return count;
+
+            Object key = heads[chosen];
+            if(out != null) {
+                offsets[count] = out.getPosition();
+                out.copyRecord(record(kind, chosen, next[chosen]));
+            }
+            count++;
+            for(int s = 0; s < n; s++)
+                if(heads[s] != null && compare(heads[s], key) == 0)
+                    heads[s] = key(kind, s, ++next[s]);
+        }
+    }
+
+    /** @return key of the i-th record of a kind in a segment, null past the end */
+    private Object key(Kind kind, int segment, int i) throws StreamCorruptedException {
+        Segment s = _segments.get(segment);
+        return switch(kind) {
+            case CLIENT        -> i < s.clients() ? s.clientKey(i) : null;
+            case TERMINAL      -> i < s.terminals() ? s.terminalKey(i) : null;
+            case COMMUNICATION -> i < s.communications() ? s.communicationNumber(i) : null;
+        };
+    }
+
+    /** @return the i-th record of a kind in a segment */
+    private ByteBuffer record(Kind kind, int segment, int i) throws StreamCorruptedException {
+        Segment s = _segments.get(segment);
+        return switch(kind) {
+            case CLIENT        -> s.client(i);
+            case TERMINAL      -> s.terminal(i);
+            case COMMUNICATION -> s.communication(i);
+        };
+    }
+
+    /** Compares two keys of the same kind */
+    private static int compare(Object a, Object b) {
+        if(a instanceof Integer i)
+            return Integer.compare(i, (Integer) b);
+        return String.CASE_INSENSITIVE_ORDER.compare((String) a, (String) b);
+    }
+}
@@ -0,0 +1,138 @@
+package prr.storage;
+
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import prr.terminals.BusyTerminalState;
+import prr.terminals.OffTerminalState;
+import prr.terminals.OnTerminalState;
+import prr.terminals.SilentTerminalState;
+import prr.terminals.TerminalState;
+
+/**
+ * Constants and primitive helpers shared by the snapshot writer and reader.
+ * <p>
+ * A snapshot is a sequence of records, each one made of an {@code int} length
+ * followed by that many bytes. The first byte of every record is its tag. The
+ * first record of a file is always the header.
+ * <p>
+ * Since version 3, the entity records are followed by an index record with
+ * the offset of every Client, Terminal and Communication record, in key (or
+ * number) order, and the file ends with a fixed-size trailer record holding
+ * the offset of the index. A mapped file can then be searched without being
+ * read.
+ */
+final class SnapshotFormat {
+
+    /** Magic number at the start of every snapshot file ("PRRS") */
+    static final int MAGIC = 0x50525253;
+
+    /** Version of the record layout written by this code */
+    static final int VERSION = 3;
+
+    /** First version whose snapshots end with an index */
+    static final int INDEXED_VERSION = 3;
+
+    /** Record tags */
+    static final byte TAG_HEADER = 0;
+    static final byte TAG_CLIENT = 1;
+    static final byte TAG_TERMINAL = 2;
+    static final byte TAG_COMMUNICATION = 3;
+    static final byte TAG_INDEX = 4;
+    static final byte TAG_TRAILER = 5;
+
+    /** Size of the trailer record, length included: {@code length|tag|index-offset} */
+    static final int TRAILER_SIZE = Integer.BYTES + 1 + Long.BYTES;
+
+    /** Client type codes */
+    static final byte TYPE_NORMAL = 0;
+    static final byte TYPE_GOLD = 1;
+    static final byte TYPE_PLATINUM = 2;
+
+    /** Terminal kind codes */
+    static final byte TERMINAL_BASIC = 0;
+    static final byte TERMINAL_FANCY = 1;
+
+    /** Terminal state codes */
+    static final byte STATE_NONE = -1;
+    static final byte STATE_IDLE = 0;
+    static final byte STATE_SILENT = 1;
+    static final byte STATE_BUSY = 2;
+    static final byte STATE_OFF = 3;
+
+    /** Communication kind codes */
+    static final byte COMMUNICATION_TEXT = 0;
+    static final byte COMMUNICATION_VOICE = 1;
+    static final byte COMMUNICATION_VIDEO = 2;
+
+    /** Communication flags */
+    static final byte FLAG_FINISHED = 1;
+    static final byte FLAG_PAID = 2;
+
+    private SnapshotFormat() {
+        // constants only
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string
+     *
+     * @param buffer buffer positioned at the string
+     * @return the decoded string
+     * @throws StreamCorruptedException if the buffer ends before the string
+     */
+    static String getString(ByteBuffer buffer) throws StreamCorruptedException {
+        try {
+            int length = buffer.getInt();
+            if(length < 0 || length > buffer.remaining())
+                throw new StreamCorruptedException("bad string length " + length);
+            String s;
+            if(buffer.hasArray()) {
+                s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(),
+                                                    length, StandardCharsets.UTF_8);
+            } else {
+                byte[] bytes = new byte[length];
+                buffer.get(buffer.position(), bytes);
+                s = new String(bytes, StandardCharsets.UTF_8);
+            }
+            buffer.position(buffer.position() + length);
+            return s;
+        } catch (BufferUnderflowException e) {
+            throw new StreamCorruptedException("truncated record");
+        }
+    }
+
+    /**
+     * @param state a Terminal state, possibly null
+     * @return the code of the given state
+     */
+    static byte stateCode(TerminalState state) {
+        if(state == null)
+            return STATE_NONE;
+        if(state.isBusy())
+            return STATE_BUSY;
+        if(state.isSilent())
+            return STATE_SILENT;
+        if(state.isOff())
+            return STATE_OFF;
+        return STATE_IDLE;
+    }
+
+    /**
+     * @param code a state code
+     * @return the Terminal state with given code, null for {@link #STATE_NONE}
+     * @throws StreamCorruptedException if the code is unknown
+     */
+    static TerminalState state(byte code) throws StreamCorruptedException {
+        return switch(code) {
+            case STATE_NONE   -> null;
+            case STATE_IDLE   -> OnTerminalState.INSTANCE;
+            case STATE_SILENT -> SilentTerminalState.INSTANCE;
+            case STATE_BUSY   -> BusyTerminalState.INSTANCE;
+            case STATE_OFF    -> OffTerminalState.INSTANCE;
+            default ->
+                throw new StreamCorruptedException("unknown terminal state " + code);
+        };
+    }
+}
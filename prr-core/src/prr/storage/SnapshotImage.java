@@ -0,0 +1,103 @@
+package prr.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A snapshot encoded in memory, detached from the Network it was taken
+ * from. Capturing an image is much cheaper than writing it to disk, so the
+ * Network can keep changing while the image is written by another thread.
+ */
+public class SnapshotImage implements WritableByteChannel {
+
+    /** Size of each block of the image */
+    private static final int BLOCK_SIZE = 1 << 20;
+
+    /** Blocks of the image, all full except the last one */
+    private final List<ByteBuffer> _blocks = new ArrayList<>();
+
+    /** Size of the image */
+    private long _size;
+
+    /** Becomes false once the image is complete */
+    private boolean _open = true;
+
+    /** Journal sequence number of the Network when the image was taken */
+    private final long _sequence;
+
+    /**
+     * @param sequence journal sequence number of the Network being captured
+     */
+    SnapshotImage(long sequence) {
+        _sequence = sequence;
+    }
+
+    /**
+     * @return size of the image, in bytes
+     */
+    public long size() {
+        return _size;
+    }
+
+    /**
+     * @return journal sequence number of the Network when the image was taken
+     */
+    public long getSequence() {
+        return _sequence;
+    }
+
+    /**
+     * Writes the image to a file. The previous contents of the file are only
+     * replaced once the whole image is safely on disk.
+     *
+     * @param filename name of the file
+     * @param listener receives the progress of the write
+     * @throws IOException if the image cannot be written
+     */
+    public void writeTo(String filename, SnapshotListener listener) throws IOException {
+        long written = 0;
+        try (FileChannel channel = SnapshotWriter.openTemporary(filename)) {
+            for(ByteBuffer block : _blocks) {
+                ByteBuffer b = block.duplicate().flip();
+                while(b.hasRemaining())
+                    written += channel.write(b);
+                listener.snapshotProgress(filename, written, _size);
+            }
+            channel.force(true);
+        }
+        SnapshotWriter.replaceWithTemporary(filename);
+    }
+
+    /** @see java.nio.channels.WritableByteChannel#write(ByteBuffer) */
+    @Override
+    public int write(ByteBuffer src) {
+        int n = src.remaining();
+        while(src.hasRemaining()) {
+            if(_blocks.isEmpty() || !_blocks.get(_blocks.size() - 1).hasRemaining())
+                _blocks.add(ByteBuffer.allocate(BLOCK_SIZE));
+            ByteBuffer block = _blocks.get(_blocks.size() - 1);
+            int count = Math.min(block.remaining(), src.remaining());
+            block.put(block.position(), src, src.position(), count);
+            block.position(block.position() + count);
+            src.position(src.position() + count);
+        }
+        _size += n;
+        return n;
+    }
+
+    /** @see java.nio.channels.Channel#isOpen() */
+    @Override
+    public boolean isOpen() {
+        return _open;
+    }
+
+    /** @see java.nio.channels.Channel#close() */
+    @Override
+    public void close() {
+        _open = false;
+    }
+}
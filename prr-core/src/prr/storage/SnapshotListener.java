@@ -0,0 +1,45 @@
+package prr.storage;
+
+import java.io.IOException;
+
+/**
+ * Receives the progress of snapshots written in the background. Methods are
+ * called from the thread writing the snapshot.
+ */
+public interface SnapshotListener {
+
+    /** A listener that ignores every event */
+    SnapshotListener NONE = new SnapshotListener() {};
+
+    /**
+     * Called after each block of the snapshot is written
+     *
+     * @param filename name of the snapshot file
+     * @param written bytes written so far
+     * @param total size of the snapshot
+     */
+    default void snapshotProgress(String filename, long written, long total) {
+        // nothing by default
+    }
+
+    /**
+     * Called once the snapshot has replaced the previous file
+     *
+     * @param filename name of the snapshot file
+     * @param size size of the snapshot
+     */
+    default void snapshotCompleted(String filename, long size) {
+        // nothing by default
+    }
+
+    /**
+     * Called if the snapshot could not be written. The previous file is left
+     * untouched.
+     *
+     * @param filename name of the snapshot file
+     * @param cause the error
+     */
+    default void snapshotFailed(String filename, IOException cause) {
+        // nothing by default
+    }
+}
@@ -0,0 +1,214 @@
+package prr.storage;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import prr.Network;
+import prr.communications.Communication;
+import prr.communications.InteractiveCommunication;
+import prr.terminals.Terminal;
+
+/**
+ * Reads a Network from a binary snapshot written by {@link SnapshotWriter}.
+ * <p>
+ * Indexed snapshots are mapped in memory, together with their deltas, and
+ * their entities are only read when first needed, see {@link MappedSnapshot}
+ * and {@link Deltas}. Older snapshots, and those too large to be mapped at
+ * once, are read as a whole.
+ */
+public class SnapshotReader {
+
+    /** Journal sequence number of the last snapshot read, with its deltas */
+    private long _sequence;
+
+    /** Whether the last snapshot read was indexed, and can take deltas */
+    private boolean _indexed;
+
+    /** Number of deltas applied to the last snapshot read */
+    private int _deltas;
+
+    /** Size of the deltas applied to the last snapshot read */
+    private long _deltaSize;
+
+    /**
+     * Checks whether a file starts like a snapshot
+     *
+     * @param filename name of the file
+     * @return true if the file has the snapshot magic number
+     */
+    public static boolean isSnapshot(String filename) {
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            ByteBuffer b = ByteBuffer.allocate(Integer.BYTES + 1 + Integer.BYTES);
+            while(b.hasRemaining() && channel.read(b) >= 0);
+            return !b.hasRemaining()
+                    && b.get(Integer.BYTES) == SnapshotFormat.TAG_HEADER
+                        && b.getInt(Integer.BYTES + 1) == SnapshotFormat.MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return sequence number of the last journal operation included in the
+     *         last snapshot read
+     */
+    public long getSequence() {
+        return _sequence;
+    }
+
+    /**
+     * @return true if the last snapshot read was indexed, so deltas can be
+     *         written after it
+     */
+    public boolean isIndexed() {
+        return _indexed;
+    }
+
+    /**
+     * @return number of deltas applied to the last snapshot read
+     */
+    public int getDeltaCount() {
+        return _deltas;
+    }
+
+    /**
+     * @return total size of the deltas applied to the last snapshot read
+     */
+    public long getDeltaSize() {
+        return _deltaSize;
+    }
+
+    /**
+     * Reads the Network stored in the given file, with its deltas
+     *
+     * @param filename name of the file
+     * @return the Network stored in the file
+     *
+     * @throws IOException if the file cannot be read or is not a valid snapshot
+     */
+    public Network read(String filename) throws IOException {
+        _indexed = false;
+        _deltas = 0;
+        _deltaSize = 0;
+        try (FileChannel channel = FileChannel.open(Path.of(filename), StandardOpenOption.READ)) {
+            if(channel.size() <= Integer.MAX_VALUE) {
+                ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                Network network = map(file, filename);
+                if(network != null)
+                    return network;
+            }
+            return read(new RecordInput(channel));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new StreamCorruptedException("truncated record");
+        }
+    }
+
+    /**
+     * Creates a Network that reads its entities from a mapped snapshot, and
+     * the deltas written after it, as they are needed. The mappings outlive
+     * the file channels, and files are always replaced by renaming, so the
+     * mapped files never change.
+     *
+     * @return the Network, or null if the snapshot has no index
+     */
+    private Network map(ByteBuffer file, String filename) throws IOException {
+        int length = file.getInt(0);
+        if(length <= 0 || length > file.limit() - Integer.BYTES)
+            throw new StreamCorruptedException("bad record length " + length);
+        ByteBuffer header = file.slice(Integer.BYTES, length);
+        if(header.remaining() >= 1 + 2 * Integer.BYTES
+                && header.getInt(1 + Integer.BYTES) < SnapshotFormat.INDEXED_VERSION)
+            return null;
+
+        List<Segment> segments = new ArrayList<>();
+        Segment base = new Segment(file);
+        segments.add(base);
+        for(Path p : Deltas.list(filename)) {
+            if(Deltas.sequence(p) > base.getSequence()) {
+                segments.add(new Segment(Segment.map(p)));
+                _deltas++;
+                _deltaSize += Files.size(p);
+            }
+        }
+        Segment newest = segments.get(segments.size() - 1);
+        _sequence = newest.getSequence();
+        _indexed = true;
+
+        Network network = new Network();
+        network.setSnapshot(new MappedSnapshot(segments, network));
+        network.setNextCommunicationNumber(newest.getNextNumber());
+        network.setClean();
+        return network;
+    }
+
+    /**
+     * Reads every record of a snapshot
+     */
+    Network read(RecordInput in) throws IOException {
+        ByteBuffer header = in.nextRecord();
+        _sequence = SnapshotCodec.readHeader(header);
+        int nextNumber = header.getInt();
+        int clients = header.getInt();
+        int terminals = header.getInt();
+        int communications = header.getInt();
+
+        Network network = new Network();
+        for(int i = 0; i < clients; i++)
+            network.restoreClient(SnapshotCodec.readClient(next(in, SnapshotFormat.TAG_CLIENT)));
+
+        // friends may refer to Terminals further ahead, so keep their records
+        List<Terminal> read = new ArrayList<>(terminals);
+        List<ByteBuffer> links = new ArrayList<>(terminals);
+        Map<Integer, List<Terminal>> active = new HashMap<>();
+        for(int i = 0; i < terminals; i++) {
+            ByteBuffer record = next(in, SnapshotFormat.TAG_TERMINAL);
+            Terminal t = SnapshotCodec.readTerminal(record, network);
+            network.restoreTerminal(t);
+            read.add(t);
+            int number = record.getInt();
+            if(number != 0)
+                active.computeIfAbsent(number, k -> new ArrayList<>(2)).add(t);
+            links.add(ByteBuffer.allocate(record.remaining()).put(record).flip());
+        }
+        for(int i = 0; i < terminals; i++)
+            SnapshotCodec.readTerminalLinks(links.get(i), read.get(i), network);
+
+        for(int i = 0; i < communications; i++) {
+            Communication c = SnapshotCodec.readCommunication(
+                                    next(in, SnapshotFormat.TAG_COMMUNICATION), network);
+            c.getSender().getStartedCommunications().add(c);
+            c.getReciever().getReceivedCommunications().add(c);
+            List<Terminal> endpoints = active.remove(c.getNumber());
+            if(endpoints != null) {
+                if(!(c instanceof InteractiveCommunication))
+                    throw new StreamCorruptedException("bad active communication " + c.getNumber());
+                for(Terminal t : endpoints)
+                    t.setActiveCommunication((InteractiveCommunication) c);
+            }
+        }
+        if(!active.isEmpty())
+            throw new StreamCorruptedException("unknown active communication");
+
+        network.setNextCommunicationNumber(nextNumber);
+        network.setClean();
+        return network;
+    }
+
+    /** Returns the next record, checking it has the expected tag */
+    private static ByteBuffer next(RecordInput in, byte tag) throws IOException {
+        ByteBuffer record = in.nextRecord();
+        if(record == null || record.get() != tag)
+            throw new StreamCorruptedException("expected record " + tag);
+        return record;
+    }
+}
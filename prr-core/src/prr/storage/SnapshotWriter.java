@@ -0,0 +1,187 @@
+package prr.storage;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import prr.Network;
+import prr.clients.Client;
+import prr.communications.Communication;
+import prr.terminals.Terminal;
+
+/**
+ * Writes a Network as a binary snapshot.
+ * <p>
+ * Snapshots replace Java serialization: every entity is written as a compact
+ * record of primitives, so saving a Network costs one pass over its entities
+ * and no reflection. An index of the records ends the snapshot, so that it
+ * can be read lazily by {@link MappedSnapshot}.
+ */
+public class SnapshotWriter {
+
+    /** Network to be written */
+    private final Network _network;
+
+    /** Sequence number of the last journal operation reflected in the Network */
+    private final long _sequence;
+
+    /**
+     * @param network the Network to be written
+     * @param sequence sequence number of the last journal operation
+     *                 reflected in the Network
+     */
+    public SnapshotWriter(Network network, long sequence) {
+        _network = network;
+        _sequence = sequence;
+    }
+
+    /**
+     * Writes the Network to the given file. The snapshot is written to a
+     * temporary file first, which then atomically replaces the given file,
+     * so a failure never leaves a damaged file behind.
+     *
+     * @param filename name of the file
+     * @return number of bytes written
+     *
+     * @throws IOException if the file cannot be written
+     */
+    public long write(String filename) throws IOException {
+        long size;
+        try (FileChannel channel = openTemporary(filename)) {
+            RecordOutput out = new RecordOutput(channel);
+            write(out);
+            out.flush();
+            channel.force(true);
+            size = out.getBytesWritten();
+        }
+        replaceWithTemporary(filename);
+        return size;
+    }
+
+    /**
+     * Encodes the Network in memory, so that it can be written later, or by
+     * another thread, while the Network keeps changing
+     *
+     * @return the encoded snapshot
+     */
+    public SnapshotImage capture() {
+        SnapshotImage image = new SnapshotImage(_sequence);
+        try (RecordOutput out = new RecordOutput(image)) {
+            write(out);
+        } catch (IOException e) {
+            // images are in memory and cannot fail
+            throw new UncheckedIOException(e);
+        }
+        image.close();
+        return image;
+    }
+
+    /**
+     * Encodes in memory a delta with the records of the changed entities only.
+     * A delta has the layout of a snapshot, and its records replace those of
+     * the same entities in the snapshot and older deltas.
+     *
+     * @param changes the entities changed since the last snapshot or delta
+     * @return the encoded delta
+     */
+    public SnapshotImage captureDelta(ChangeSet changes) {
+        List<Client> clients = new ArrayList<>(changes.getClients());
+        clients.sort(Comparator.comparing(Client::getKey, String.CASE_INSENSITIVE_ORDER));
+        List<Terminal> terminals = new ArrayList<>(changes.getTerminals());
+        terminals.sort(Comparator.comparing(Terminal::getKey, String.CASE_INSENSITIVE_ORDER));
+        List<Communication> communications = new ArrayList<>(changes.getCommunications());
+        Collections.sort(communications);
+
+        SnapshotImage image = new SnapshotImage(_sequence);
+        try (RecordOutput out = new RecordOutput(image)) {
+            write(out, clients, terminals, communications);
+        } catch (IOException e) {
+            // images are in memory and cannot fail
+            throw new UncheckedIOException(e);
+        }
+        image.close();
+        return image;
+    }
+
+    /**
+     * Opens the temporary file where a new version of a file is written
+     *
+     * @param filename name of the file being replaced
+     * @return channel to the empty temporary file
+     * @throws IOException if the file cannot be created
+     */
+    static FileChannel openTemporary(String filename) throws IOException {
+        return FileChannel.open(temporary(filename), StandardOpenOption.CREATE,
+                                                StandardOpenOption.READ,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Atomically replaces a file by its temporary version
+     *
+     * @param filename name of the file being replaced
+     * @throws IOException if the file cannot be replaced
+     */
+    static void replaceWithTemporary(String filename) throws IOException {
+        Files.move(temporary(filename), Path.of(filename),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** @return the temporary version of a file */
+    private static Path temporary(String filename) {
+        return Path.of(filename + ".tmp");
+    }
+
+    /**
+     * Writes every record of the Network to the given output
+     */
+    void write(RecordOutput out) throws IOException {
+        write(out, _network.getAllClients(), _network.getAllTerminals(),
+                _network.getAllCommunications());
+    }
+
+    /**
+     * Writes the records of the given entities, which must be in key (or
+     * number) order, followed by their index
+     */
+    private void write(RecordOutput out, Collection<Client> clientList,
+                            Collection<Terminal> terminalList,
+                                Collection<Communication> communications) throws IOException {
+        long[] clients = new long[clientList.size()];
+        long[] terminals = new long[terminalList.size()];
+        long[] numbers = new long[communications.size()];
+
+        SnapshotCodec.writeHeader(out, _sequence, _network.getNextCommunicationNumber(),
+                                    clients.length, terminals.length, numbers.length);
+        int i = 0;
+        for(Client c : clientList) {
+            clients[i++] = out.getPosition();
+            SnapshotCodec.writeClient(out, c);
+        }
+        i = 0;
+        for(Terminal t : terminalList) {
+            terminals[i++] = out.getPosition();
+            SnapshotCodec.writeTerminal(out, t);
+        }
+        i = 0;
+        for(Communication c : communications) {
+            numbers[i++] = out.getPosition();
+            SnapshotCodec.writeCommunication(out, c);
+        }
+
+        // entities are iterated in key order, so the index can be searched
+        long index = out.getPosition();
+        SnapshotCodec.writeIndex(out, clients, terminals, numbers);
+        SnapshotCodec.writeTrailer(out, index);
+    }
+}
@@ -1,8 +1,11 @@
 package prr.terminals;
 
+import java.util.concurrent.locks.Lock;
+
 import prr.Network;
 import prr.clients.Client;
 import prr.communications.Communication;
+import prr.communications.InteractiveCommunication;
 import prr.communications.TextCommunication;
 import prr.communications.VoiceCommunication;
 import prr.exceptions.UnavailableTerminalException;
@@ -24,37 +27,62 @@ public class BasicTerminal extends Terminal {
     public void sendTextCommunication(String key, String text, Network context) throws
                                                     UnavailableTerminalException,
                                                         prr.exceptions.UnknownTerminalKeyException {
-        Terminal destination = context.getTerminalByKey(key);
+        Runnable log = () -> context.getJournal().logTextCommunication(_key, key, text);
+        Terminal destination = getOtherTerminal(key, context, log);
+        synchronized(firstLock(destination)) {
+            synchronized(secondLock(destination)) {
+                synchronized(_owner.getOperationLock()) {
+                    Lock operation = context.getOperationLock();
+                    operation.lock();
+                    try {
+                        sendTextCommunication(destination, text, context, log);
+                    } catch (UnavailableTerminalException e) {
+                        log.run();
+                        throw e;
+                    } finally {
+                        operation.unlock();
+                    }
+                }
+            }
+        }
+    }
 
+    /**
+     * Sends a Text Communication, holding the locks of both Terminals. The
+     * operation is journaled as the Communication gets its number, or by
+     * the caller if it fails.
+     */
+    private void sendTextCommunication(Terminal destination, String text, Network context,
+                                            Runnable log) throws UnavailableTerminalException {
         // cannot send communication to itself
-        if(key.equals(this.getKey())) {
+        if(destination == this) {
+            log.run();
             return;
         }
 
         // check if destination Terminal can receive a text communication
         if(!destination.canReceiveTextCommunication()) {
-			if(_owner.notificationsOn() && !destination.getClientsObserver().contains(_owner)){
-                context.setDirty();
-				destination.getClientsObserver().add(_owner);
+			if(_owner.notificationsOn() && destination.getClientsObserver().add(_owner)){
+                context.setDirty(destination);
 			}
             throw new UnavailableTerminalException(destination.getKey(), destination.getState());
         }
 
-        Communication c = new TextCommunication(this, destination, text);
-        // add to this Terminal's sent communications
-        this._sentCommunications.add(c);
-        // add to receiver Terminal's received communications
-        destination.getReceivedCommunications().add(c);
+        Communication c = new TextCommunication(context.newCommunicationNumber(log),
+                                                    this, destination, text);
+        communicationFinished(c);
 
         // determine the cost of the communication
-        c.determinePrice(_owner.getClientType().getTariffTable());
-        _debtBalance += c.getPrice();
+        c.determinePrice(_owner.getTariffTable());
+        changeBalance(0, c.getPrice(), context);
 
         _owner.incrementConsecutiveTextComms();
         _owner.sendCommunication();
         
-        // set context dirty
-        context.setDirty();
+        // record the communication and set context dirty
+        context.addCommunication(c);
+        context.setDirty(destination);
+        context.setDirty(this);
     }
 
     /** @see prr.terminals.Terminal#canReceiveInteractiveCommunication(String) */
@@ -74,9 +102,37 @@ public class BasicTerminal extends Terminal {
     public void sendInteractiveCommunication(String key, String commType, Network context)
                                 throws UnavailableTerminalException, UnknownTerminalKeyException,
                                     prr.exceptions.UnsupportedOperationException {
+        Runnable log = () -> context.getJournal().logInteractiveCommunication(_key, key, commType);
         // get destionation Terminal
-        Terminal destination = context.getTerminalByKey(key);
+        Terminal destination = getOtherTerminal(key, context, log);
+        synchronized(firstLock(destination)) {
+            synchronized(secondLock(destination)) {
+                synchronized(_owner.getOperationLock()) {
+                    Lock operation = context.getOperationLock();
+                    operation.lock();
+                    try {
+                        startInteractiveCommunication(destination, commType, context, log);
+                    } catch (UnavailableTerminalException
+                                | prr.exceptions.UnsupportedOperationException e) {
+                        log.run();
+                        throw e;
+                    } finally {
+                        operation.unlock();
+                    }
+                }
+            }
+        }
+    }
 
+    /**
+     * Starts a Voice Communication, holding the locks of both Terminals. The
+     * operation is journaled as the Communication gets its number, or by
+     * the caller if it fails.
+     */
+    private void startInteractiveCommunication(Terminal destination, String commType,
+                                    Network context, Runnable log)
+                                        throws UnavailableTerminalException,
+                                            prr.exceptions.UnsupportedOperationException {
         // if trying to do a Video communication on a Basic Terminal
         if(commType.equals("VIDEO")) {
             throw new prr.exceptions.UnsupportedOperationException(this.getKey());
@@ -84,20 +140,23 @@ public class BasicTerminal extends Terminal {
 
         // if destination can receive an interactive communication
         if(!destination.canReceiveInteractiveCommunication(commType)) {
-			if(_owner.notificationsOn() && !destination.getClientsObserver().contains(_owner)){
-				destination.getClientsObserver().add(_owner);
-                context.setDirty();
+			if(_owner.notificationsOn() && destination.getClientsObserver().add(_owner)){
+                context.setDirty(destination);
 			}
             throw new UnavailableTerminalException(destination.getKey(), destination.getState());
         }
 
         // create new communication
-        new VoiceCommunication(this, destination);
+        InteractiveCommunication c = new VoiceCommunication(context.newCommunicationNumber(log),
+                                                                this, destination);
+        c.registerCommunication();
 
         _owner.incrementConsecutiveVoiceComms();
         _owner.sendCommunication();
-        // set context dirty
-        context.setDirty();
+        // record the communication and set context dirty
+        context.addCommunication(c);
+        context.setDirty(destination);
+        context.setDirty(this);
     }
 
     /**
@@ -10,6 +10,17 @@ public class BusyTerminalState extends TerminalState implements Serializable {
     /** Serial number for serialization. */
 	private static final long serialVersionUID = 202208091753L;
 
+    /** The busy state, shared by every Terminal in it */
+    public static final BusyTerminalState INSTANCE = new BusyTerminalState();
+
+    private BusyTerminalState() {}
+
+    /** @return the shared instance, in place of a deserialized copy */
+    @Serial
+    private Object readResolve() {
+        return INSTANCE;
+    }
+
     /** @see prr.terminals.TerminalState#canEndCurrentCommunication(Terminal) */
     @Override
     public boolean canEndCurrentCommunication(Terminal context) {
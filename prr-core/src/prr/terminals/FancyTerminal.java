@@ -1,7 +1,10 @@
 package prr.terminals;
 
+import java.util.concurrent.locks.Lock;
+
 import prr.Network;
 import prr.clients.Client;
+import prr.communications.InteractiveCommunication;
 import prr.communications.VideoCommunication;
 import prr.communications.VoiceCommunication;
 import prr.exceptions.UnknownTerminalKeyException;
@@ -29,28 +32,60 @@ public class FancyTerminal extends BasicTerminal {
                                         throws UnavailableTerminalException,
                                             UnknownTerminalKeyException,
                                                 prr.exceptions.UnsupportedOperationException {
-        Terminal destination = context.getTerminalByKey(key);
+        Runnable log = () -> context.getJournal().logInteractiveCommunication(_key, key, commType);
+        Terminal destination = getOtherTerminal(key, context, log);
+        synchronized(firstLock(destination)) {
+            synchronized(secondLock(destination)) {
+                synchronized(_owner.getOperationLock()) {
+                    Lock operation = context.getOperationLock();
+                    operation.lock();
+                    try {
+                        startInteractiveCommunication(destination, commType, context, log);
+                    } catch (UnavailableTerminalException
+                                | prr.exceptions.UnsupportedOperationException e) {
+                        log.run();
+                        throw e;
+                    } finally {
+                        operation.unlock();
+                    }
+                }
+            }
+        }
+    }
 
+    /**
+     * Starts an Interactive Communication, holding the locks of both
+     * Terminals. The operation is journaled as the Communication gets its
+     * number, or by the caller if it fails.
+     */
+    private void startInteractiveCommunication(Terminal destination, String commType,
+                                        Network context, Runnable log)
+                                            throws UnavailableTerminalException,
+                                                prr.exceptions.UnsupportedOperationException {
         if(!destination.canReceiveInteractiveCommunication(commType)) {
-			if(_owner.notificationsOn() && !destination.getClientsObserver().contains(_owner)){
-				destination.getClientsObserver().add(_owner);
-                context.setDirty();
+			if(_owner.notificationsOn() && destination.getClientsObserver().add(_owner)){
+                context.setDirty(destination);
 			}
             throw new UnavailableTerminalException(destination.getKey(), destination.getState());
         }
 
         // create communication
+        int number = context.newCommunicationNumber(log);
+        InteractiveCommunication c;
         if(commType.equals("VOICE")) {
-            new VoiceCommunication(this, destination);
+            c = new VoiceCommunication(number, this, destination);
             _owner.incrementConsecutiveVoiceComms();
         } else {
-            new VideoCommunication(this, destination);
+            c = new VideoCommunication(number, this, destination);
             _owner.incrementConsecutiveVideoComms();
         }
+        c.registerCommunication();
         _owner.sendCommunication();
 
-        // set context dirty
-        context.setDirty();
+        // record the communication and set context dirty
+        context.addCommunication(c);
+        context.setDirty(destination);
+        context.setDirty(this);
     }
 
     /**
@@ -0,0 +1,149 @@
+package prr.terminals;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * The keys of the friends of a Terminal.
+ * <p>
+ * Terminal keys are exactly 6 digits, so each is kept as its number in a
+ * sorted int array. Membership is a binary search over the array, and the
+ * keys iterate in key order.
+ */
+public class FriendSet extends AbstractSet<String> implements Serializable {
+
+    @Serial
+    /** Serial number for serialization. */
+	private static final long serialVersionUID = 202208091753L;
+
+    /** Numbers of the friend keys, sorted; only the first _size are used */
+    private int[] _numbers = new int[4];
+
+    /** Number of friends */
+    private int _size;
+
+    /**
+     * @param number the number of a friend key
+     * @return true if the Terminal with that key is a friend
+     */
+    public boolean contains(int number) {
+        return number >= 0 && Arrays.binarySearch(_numbers, 0, _size, number) >= 0;
+    }
+
+    @Override
+    public boolean contains(Object key) {
+        return key instanceof String s && contains(Terminal.keyNumber(s));
+    }
+
+    /**
+     * @param key a 6-digit Terminal key
+     * @return true if the key was not yet a friend
+     */
+    @Override
+    public boolean add(String key) {
+        int number = Terminal.keyNumber(key);
+        if(number < 0)
+            throw new IllegalArgumentException("bad terminal key " + key);
+        int i = Arrays.binarySearch(_numbers, 0, _size, number);
+        if(i >= 0)
+            return false;
+        i = -i - 1;
+        if(_size == _numbers.length)
+            _numbers = Arrays.copyOf(_numbers, _size * 2);
+        System.arraycopy(_numbers, i, _numbers, i + 1, _size - i);
+        _numbers[i] = number;
+        _size++;
+        return true;
+    }
+
+    /**
+     * Adds several friends at once, merging them into the sorted numbers
+     *
+     * @param numbers numbers of the friend keys, in any order, repeats allowed
+     * @param count how many of the numbers to add
+     * @return numbers of the keys that were not yet friends, sorted
+     */
+    public int[] addAll(int[] numbers, int count) {
+        int[] sorted = Arrays.copyOf(numbers, count);
+        Arrays.sort(sorted);
+        int[] added = new int[count];
+        int n = 0;
+        for(int i = 0; i < count; i++) {
+            if(sorted[i] < 0 || sorted[i] > 999999)
+                throw new IllegalArgumentException("bad terminal key number " + sorted[i]);
+            if((n == 0 || added[n - 1] != sorted[i]) && !contains(sorted[i]))
+                added[n++] = sorted[i];
+        }
+        if(n == 0)
+            return new int[0];
+        int[] merged = new int[Math.max(_numbers.length, _size + n)];
+        for(int i = _size - 1, j = n - 1, k = _size + n - 1; k >= 0; k--)
+            merged[k] = j < 0 || i >= 0 && _numbers[i] > added[j] ? _numbers[i--] : added[j--];
+        _numbers = merged;
+        _size += n;
+        return Arrays.copyOf(added, n);
+    }
+
+    /**
+     * @return the numbers of the friend keys, sorted
+     */
+    public int[] toNumbers() {
+        return Arrays.copyOf(_numbers, _size);
+    }
+
+    @Override
+    public boolean remove(Object key) {
+        if(!(key instanceof String s))
+            return false;
+        int number = Terminal.keyNumber(s);
+        int i = number < 0 ? -1 : Arrays.binarySearch(_numbers, 0, _size, number);
+        if(i < 0)
+            return false;
+        System.arraycopy(_numbers, i + 1, _numbers, i, _size - i - 1);
+        _size--;
+        return true;
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * @return an iterator over the friend keys, in key order
+     */
+    @Override
+    public Iterator<String> iterator() {
+        return new Iterator<>() {
+            /** Index of the next key, and of the last one returned or -1 */
+            private int _next, _last = -1;
+
+            @Override
+            public boolean hasNext() {
+                return _next < _size;
+            }
+
+            @Override
+            public String next() {
+                if(!hasNext())
+                    throw new NoSuchElementException();
+                _last = _next++;
+                return Terminal.keyOf(_numbers[_last]);
+            }
+
+            @Override
+            public void remove() {
+                if(_last < 0)
+                    throw new IllegalStateException();
+                System.arraycopy(_numbers, _last + 1, _numbers, _last, _size - _last - 1);
+                _size--;
+                _next = _last;
+                _last = -1;
+            }
+        };
+    }
+}
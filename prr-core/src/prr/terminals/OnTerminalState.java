@@ -8,6 +8,17 @@ public class OnTerminalState extends TerminalState implements Serializable {
     /** Serial number for serialization. */
 	private static final long serialVersionUID = 202208091753L;
 
+    /** The idle state, shared by every Terminal in it */
+    public static final OnTerminalState INSTANCE = new OnTerminalState();
+
+    private OnTerminalState() {}
+
+    /** @return the shared instance, in place of a deserialized copy */
+    @Serial
+    private Object readResolve() {
+        return INSTANCE;
+    }
+
     /** @see prr.terminals.TerminalState#canEndCurrentCommunication(Terminal) */
     @Override
     public boolean canEndCurrentCommunication(Terminal context) {
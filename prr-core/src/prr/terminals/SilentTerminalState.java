@@ -9,6 +9,17 @@ public class SilentTerminalState extends TerminalState implements Serializable {
     /** Serial number for serialization. */
 	private static final long serialVersionUID = 202208091753L;
 
+    /** The silent state, shared by every Terminal in it */
+    public static final SilentTerminalState INSTANCE = new SilentTerminalState();
+
+    private SilentTerminalState() {}
+
+    /** @return the shared instance, in place of a deserialized copy */
+    @Serial
+    private Object readResolve() {
+        return INSTANCE;
+    }
+
     /** @see prr.terminals.TerminalState#canEndCurrentCommunication(Terminal) */
     @Override
     public boolean canEndCurrentCommunication(Terminal context) {
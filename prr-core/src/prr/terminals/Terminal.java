@@ -1,12 +1,20 @@
 package prr.terminals;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
+import java.io.Serial;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
 
+import prr.Money;
 import prr.Network;
 import prr.clients.Client;
 import prr.communications.Communication;
@@ -19,6 +27,10 @@ import prr.exceptions.UnsupportedOperationException;
 
 /**
 * Abstract terminal.
+* <p>
+* Operations that change a Terminal hold its monitor, so independent
+* Terminals can be used from several threads at once. Operations on two
+* Terminals hold both monitors, always taken in key order.
 */
 abstract public class Terminal implements Serializable {
     
@@ -31,21 +43,29 @@ abstract public class Terminal implements Serializable {
     /** Client that owns this Terminal */
     protected Client _owner;
     
-    protected Double _paidBalance = 0.0;
+    /** Paid balance, in cents */
+    protected long _paidBalance;
     
-    protected Double _debtBalance = 0.0;
+    /** Debt balance, in cents */
+    protected long _debtBalance;
     
     /** Current ongoing communication */
     protected InteractiveCommunication _activeCommunication;
     
-    /** List of Clients that are awaiting this Terminal State update (clients who needs to be notificated) */
-    protected List<Client> _clientObservers = new ArrayList<>();
+    /**
+     * Clients that are awaiting this Terminal State update (clients who needs
+     * to be notificated), in the order they started waiting
+     */
+    protected Set<Client> _clientObservers = new LinkedHashSet<>();
     
     /** List of communications started by this Terminal */
     protected List<Communication> _receivedCommunications = new ArrayList<>();
     
     /** List of communications recieved by this Terminal */
     protected List<Communication> _sentCommunications = new ArrayList<>();
+
+    /** Unpaid finished communications started by this Terminal, by number; null until needed */
+    private transient Map<Integer, Communication> _unpaidCommunications;
     
     /** The current State of this Terminal */
     protected TerminalState _stateBeforeBusy;
@@ -53,8 +73,30 @@ abstract public class Terminal implements Serializable {
     /** The current State of this Terminal */
     protected TerminalState _state;
     
-    /** Terminal friends of this Terminal */
-    protected Map<String, Terminal> _friends = new TreeMap<>();
+    /** Keys of the Terminal friends of this Terminal */
+    protected FriendSet _friends = new FriendSet();
+
+    /**
+    * Fields written by serialization, as older versions wrote them: the
+    * balances are kept there as Doubles in whole units, and the observers
+    * as a List. Friends are written as a FriendSet, and read from the Map of
+    * Terminals older versions wrote.
+    */
+    @Serial
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("_key", String.class),
+        new ObjectStreamField("_owner", Client.class),
+        new ObjectStreamField("_paidBalance", Double.class),
+        new ObjectStreamField("_debtBalance", Double.class),
+        new ObjectStreamField("_activeCommunication", InteractiveCommunication.class),
+        new ObjectStreamField("_clientObservers", List.class),
+        new ObjectStreamField("_receivedCommunications", List.class),
+        new ObjectStreamField("_sentCommunications", List.class),
+        new ObjectStreamField("_stateBeforeBusy", TerminalState.class),
+        new ObjectStreamField("_state", TerminalState.class),
+        new ObjectStreamField("_friends", Map.class),
+        new ObjectStreamField("_friendSet", FriendSet.class),
+    };
     
     /**
     *
@@ -64,7 +106,7 @@ abstract public class Terminal implements Serializable {
     public Terminal(String key, Client owner) {
         _key = key;
         _owner = owner;
-        _state = new OnTerminalState();
+        _state = OnTerminalState.INSTANCE;
     }
     
     public Terminal(String key, Client owner, TerminalState state) {
@@ -73,6 +115,38 @@ abstract public class Terminal implements Serializable {
         _state = state;
     }
     
+    /**
+    * Converts a Terminal key into the number it is made of. Every place that
+    * packs Terminal keys into numbers goes through here, so they all accept
+    * the same keys.
+    *
+    * @param key a Terminal key
+    * @return the key as a number, or -1 if it is not exactly 6 digits
+    */
+    public static int keyNumber(String key) {
+        if(key.length() != 6)
+            return -1;
+        int n = 0;
+        for(int i = 0; i < 6; i++) {
+            char c = key.charAt(i);
+            if(c < '0' || c > '9')
+                return -1;
+            n = n * 10 + c - '0';
+        }
+        return n;
+    }
+
+    /**
+    * @param number the number of a Terminal key
+    * @return the 6-digit Terminal key with the given number
+    */
+    public static String keyOf(int number) {
+        char[] digits = new char[6];
+        for(int i = 5; i >= 0; i--, number /= 10)
+            digits[i] = (char) ('0' + number % 10);
+        return new String(digits);
+    }
+
     /**
     * Returns Terminal's identifying key
     *
@@ -89,20 +163,21 @@ abstract public class Terminal implements Serializable {
     /**
     * Returns Terminal's total paid balance in Communication's prices
     *
-    * @return paid balance
+    * @return paid balance, in cents
     */
-    public Double getPaidBalance() { return _paidBalance; }
+    public long getPaidBalance() { return _paidBalance; }
     
     /**
     * Returns Terminal's total debt balance in Communication's prices
     *
-    * @return debt balance
+    * @return debt balance, in cents
     */
-    public Double getDebtBalance() { return _debtBalance; }
+    public long getDebtBalance() { return _debtBalance; }
     
     public TerminalState getTerminalState() { return _state; }
     
-    public Map<String, Terminal> getFriends() { return _friends; }
+    /** @return keys of this Terminal's friends, in key order */
+    public FriendSet getFriends() { return _friends; }
     
     /**
     * Returns current Terminal's state
@@ -122,6 +197,84 @@ abstract public class Terminal implements Serializable {
     }
     
     public void setTerminalState(TerminalState state) { _state = state; }
+
+    @Serial
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("_key", _key);
+        fields.put("_owner", _owner);
+        fields.put("_paidBalance", Money.toUnits(_paidBalance));
+        fields.put("_debtBalance", Money.toUnits(_debtBalance));
+        fields.put("_activeCommunication", _activeCommunication);
+        fields.put("_clientObservers", new ArrayList<>(_clientObservers));
+        fields.put("_receivedCommunications", _receivedCommunications);
+        fields.put("_sentCommunications", _sentCommunications);
+        fields.put("_stateBeforeBusy", _stateBeforeBusy);
+        fields.put("_state", _state);
+        fields.put("_friendSet", _friends);
+        out.writeFields();
+    }
+
+    @Serial
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        _key = (String) fields.get("_key", null);
+        _owner = (Client) fields.get("_owner", null);
+        _paidBalance = Money.fromUnits((Double) fields.get("_paidBalance", null));
+        _debtBalance = Money.fromUnits((Double) fields.get("_debtBalance", null));
+        _activeCommunication = (InteractiveCommunication) fields.get("_activeCommunication", null);
+        _clientObservers = new LinkedHashSet<>((List<Client>) fields.get("_clientObservers", null));
+        _receivedCommunications = (List<Communication>) fields.get("_receivedCommunications", null);
+        _sentCommunications = (List<Communication>) fields.get("_sentCommunications", null);
+        _stateBeforeBusy = (TerminalState) fields.get("_stateBeforeBusy", null);
+        _state = (TerminalState) fields.get("_state", null);
+        _friends = (FriendSet) fields.get("_friendSet", null);
+        if(_friends == null) {
+            _friends = new FriendSet();
+            _friends.addAll(((Map<String, Terminal>) fields.get("_friends", null)).keySet());
+        }
+    }
+
+    /**
+    * Restores Terminal's balances, e.g. after a load, before the Terminal is
+    * added to its owner and to the Network
+    *
+    * @param paid paid balance, in cents
+    * @param debt debt balance, in cents
+    */
+    public void restoreBalance(long paid, long debt) {
+        _paidBalance = paid;
+        _debtBalance = debt;
+    }
+
+    /**
+    * Changes Terminal's balances, and the totals of its owner and of the
+    * Network with them
+    *
+    * @param paid amount added to the paid balance, in cents
+    * @param debt amount added to the debt balance, in cents
+    * @param context The Network
+    */
+    protected void changeBalance(long paid, long debt, Network context) {
+        _paidBalance += paid;
+        _debtBalance += debt;
+        _owner.balanceChanged(paid, debt);
+        context.balanceChanged(this, paid - debt);
+    }
+    
+    /**
+    * Restores Terminal's Communications, e.g. after a load
+    *
+    * @param started Communications started by this Terminal
+    * @param received Communications received by this Terminal
+    */
+    public void restoreCommunications(List<Communication> started,
+                                                List<Communication> received) {
+        _sentCommunications = started;
+        _receivedCommunications = received;
+        _unpaidCommunications = null;
+    }
     
     /**
     * Returns a List of all Communications started by Terminal
@@ -137,21 +290,43 @@ abstract public class Terminal implements Serializable {
     */
     public List<Communication> getReceivedCommunications() { return _receivedCommunications; }
     
-    public List<Client> getClientsObserver() { return _clientObservers; }
+    public Set<Client> getClientsObserver() { return _clientObservers; }
     
     public Communication getUnpaidCommunicationById(Integer id)
     throws InvalidCommunicationPayment {
-        for(Communication c : _sentCommunications) {
-            if(c.getNumber().equals(id)) {
-                if(c.isFinished() && !c.isPaid()) {
-                    return c;
-                } else {
-                    break;
-                }
-            }
+        Communication c = getUnpaidCommunications().get(id);
+        if(c == null)
+            throw new InvalidCommunicationPayment(id);
+        return c;
+    }
+
+    /**
+    * Returns the finished Communications started by this Terminal that are
+    * not yet paid, found in the started Communications when first needed
+    *
+    * @return unpaid Communications, by number
+    */
+    private Map<Integer, Communication> getUnpaidCommunications() {
+        if(_unpaidCommunications == null) {
+            _unpaidCommunications = new HashMap<>();
+            for(Communication c : _sentCommunications)
+                if(c.isFinished() && !c.isPaid())
+                    _unpaidCommunications.put(c.getNumber(), c);
         }
-        throw new InvalidCommunicationPayment(id);
+        return _unpaidCommunications;
     }
+
+    /**
+    * Records a Communication started by this Terminal, which is unpaid if
+    * already finished
+    *
+    * @param c the Communication
+    */
+    protected void communicationFinished(Communication c) {
+        if(_unpaidCommunications != null && c.isFinished() && !c.isPaid())
+            _unpaidCommunications.put(c.getNumber(), c);
+    }
+
     /**
     * Returns Terminal's currently active Communication
     *
@@ -167,48 +342,96 @@ abstract public class Terminal implements Serializable {
     }
     
     
-    public void addFriend(String key, Network context)
+    public synchronized void addFriend(String key, Network context)
                                 throws prr.exceptions.UnknownTerminalKeyException {
-        Terminal t = context.getTerminalByKey(key);
-        
-        // if trying to add Terminal to its own friends
-        if(key.equals(_key)) {
-            return;
-        }
-        // if terminal is already a friend
-        if(isFriend(t)) {
-            return;
+        // journaled in the same order as the registration of the friend,
+        // and the friendship graph changed along with the friend set
+        synchronized(context) {
+            context.getJournal().logAddFriend(_key, key);
+            Terminal t = context.getTerminalByKey(key);
+            
+            // if trying to add Terminal to its own friends
+            if(key.equals(_key)) {
+                return;
+            }
+            // if terminal is already a friend
+            if(isFriend(t)) {
+                return;
+            }
+            
+            // add to friends list
+            _friends.add(t.getKey());
+            context.friendsAdded(this, new int[] { keyNumber(key) });
+            context.setDirty(this);
         }
-        
-        // add to friends list
-        _friends.put(t.getKey(), t);
         // add this Terminal to other Terminal's friend list
         // t.getFriends().put(_key, this);
     }
     
     /**
+    * Adds several friends at once, as adding each in turn would: friends
+    * before an unknown key are still added. The new friends are merged
+    * into the sorted friend set together.
     *
-    * @param key Key of Terminal to be removed from Terminals Friends
+    * @param keys Keys of the Terminals to be added to Terminal's Friends
     * @param context The network context
     * @throws prr.exceptions.UnknownTerminalKeyException If Terminal with
     *                                                    specified key doesn't exist
     */
-    public void removeFriend(String key, Network context)
+    public synchronized void addFriends(String[] keys, Network context)
                                 throws prr.exceptions.UnknownTerminalKeyException {
-        Terminal t = context.getTerminalByKey(key);
-        
-        // if trying to remove same Terminal from its friends list
-        if(key.equals(_key)) {
-            return;
+        int[] numbers = new int[keys.length];
+        int count = 0;
+        // the friendship graph is changed along with the friend set
+        synchronized(context) {
+            try {
+                for(String key : keys) {
+                    context.getJournal().logAddFriend(_key, key);
+                    context.getTerminalByKey(key);
+                    // a Terminal is never its own friend
+                    if(!key.equals(_key))
+                        numbers[count++] = keyNumber(key);
+                }
+            } finally {
+                int[] added = _friends.addAll(numbers, count);
+                if(added.length > 0) {
+                    context.friendsAdded(this, added);
+                    context.setDirty(this);
+                }
+            }
         }
-        
-        // if Terminal is not a friend
-        if(!isFriend(t)) {
-            return;
+    }
+
+    /**
+    *
+    * @param key Key of Terminal to be removed from Terminals Friends
+    * @param context The network context
+    * @throws prr.exceptions.UnknownTerminalKeyException If Terminal with
+    *                                                    specified key doesn't exist
+    */
+    public synchronized void removeFriend(String key, Network context)
+                                throws prr.exceptions.UnknownTerminalKeyException {
+        // journaled in the same order as the registration of the friend,
+        // and the friendship graph changed along with the friend set
+        synchronized(context) {
+            context.getJournal().logRemoveFriend(_key, key);
+            Terminal t = context.getTerminalByKey(key);
+            
+            // if trying to remove same Terminal from its friends list
+            if(key.equals(_key)) {
+                return;
+            }
+            
+            // if Terminal is not a friend
+            if(!isFriend(t)) {
+                return;
+            }
+            
+            // remove Terminal from friends
+            _friends.remove(t.getKey());
+            context.friendsRemoved(this, new int[] { keyNumber(key) });
+            context.setDirty(this);
         }
-        
-        // remove Terminal from friends
-        _friends.remove(t.getKey());
         // remove this Terminal from other Terminal friends
         // t.getFriends().remove(_key);
     }
@@ -223,28 +446,35 @@ abstract public class Terminal implements Serializable {
     *         given Terminal
     */
     public boolean isFriend(Terminal terminal) {
-        return _friends.containsKey(terminal.getKey());
+        return _friends.contains(keyNumber(terminal.getKey()));
     }
     
     public void doNotify(String notificationType, String terminalKey){
         for(Client c : _clientObservers){
-            // delivers a Notification to the Client given the Clients defined Notification method
-            c.notify(c.new Notification(terminalKey, notificationType));
+            // queues a Notification, delivered by the Client's Notification method in the background
+            c.queueNotification(terminalKey, notificationType);
         }
     }
     
     
-    public void changeTerminalState(TerminalState state, Network context) 
+    public synchronized void changeTerminalState(TerminalState state, Network context) 
                                 throws SameTerminalStateException {
-        // check for same Terminal Type and throw exception if same
-        if(_state.isSameType(state)) {
-            throw new SameTerminalStateException();
+        Lock operation = context.getOperationLock();
+        operation.lock();
+        try {
+            context.getJournal().logStateChange(_key, state);
+            // check for same Terminal Type and throw exception if same
+            if(_state.isSameType(state)) {
+                throw new SameTerminalStateException();
+            }
+            
+            // set Network data as dirty
+            context.setDirty(this);
+            
+            _state.changeTerminalState(this, state);
+        } finally {
+            operation.unlock();
         }
-        
-        // set Network data as dirty
-        context.setDirty();
-        
-        _state.changeTerminalState(this, state);
     }
     
     /**
@@ -324,27 +554,111 @@ abstract public class Terminal implements Serializable {
      * @return
      */
     public Integer endInteractiveCommunication(Integer duration, Network context) {
+        while(true) {
+            InteractiveCommunication active;
+            synchronized(this) {
+                active = _activeCommunication;
+            }
+            Terminal other = active == null ? this :
+                                active.getSender() == this ? active.getReciever() : active.getSender();
+            synchronized(firstLock(other)) {
+                synchronized(secondLock(other)) {
+                    // retry if the Communication changed before both locks were taken
+                    if(_activeCommunication == active) {
+                        synchronized(_owner.getOperationLock()) {
+                            Lock operation = context.getOperationLock();
+                            operation.lock();
+                            try {
+                                return endInteractiveCommunication(duration, context, active);
+                            } finally {
+                                operation.unlock();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Ends the current Interactive Communication, holding the locks of both
+     * its Terminals
+     *
+     * @param active the current Interactive Communication
+     */
+    private Integer endInteractiveCommunication(Integer duration, Network context,
+                                                InteractiveCommunication active) {
+        context.getJournal().logEndInteractiveCommunication(_key, duration);
         // define units of interactive communication (duration)
-        _activeCommunication.setUnits(duration);
+        active.setUnits(duration);
         
         // calculate and set communication price
-        _activeCommunication.determinePrice(_owner.getClientType().getTariffTable());
+        active.determinePrice(_owner.getTariffTable());
         
         // get price to return
-        Double price = _activeCommunication.getPrice();
+        long price = active.getPrice();
+        
+        // flag Network data as dirty
+        context.setDirty(active);
+        context.setDirty(active.getReciever());
+        context.setDirty(this);
         
         // set communication as finished and remove references in sender and receiver terminal
-        _activeCommunication.setFinished();
+        active.setFinished();
+        active.getSender().communicationFinished(active);
         
         // add to Terminal's debt
-        _debtBalance += price;
-        
-        // flag Network data as dirty
-        context.setDirty();
+        changeBalance(0, price, context);
         
-        return (int) Math.round(price);
+        return Money.round(price);
     }
     
+    /**
+    * Returns the other Terminal of an operation on two Terminals. An
+    * unknown key fails the operation before anything changes, so the
+    * operation is then journaled at once, without taking any Terminal lock
+    * but holding the Network's monitor, in the same order as the
+    * registration of the other Terminal.
+    *
+    * @param key Key of the other Terminal
+    * @param context The network context
+    * @param log Journals the operation
+    * @return the other Terminal
+    * @throws prr.exceptions.UnknownTerminalKeyException If Terminal with
+    *                                                    specified key doesn't exist
+    */
+    protected Terminal getOtherTerminal(String key, Network context, Runnable log)
+                                throws prr.exceptions.UnknownTerminalKeyException {
+        synchronized(context) {
+            try {
+                return context.getTerminalByKey(key);
+            } catch (prr.exceptions.UnknownTerminalKeyException e) {
+                log.run();
+                throw e;
+            }
+        }
+    }
+
+    /**
+    * Returns the Terminal locked first by an operation on this and another
+    * Terminal: the one with the lowest key, so two operations on the same
+    * Terminals never wait for each other's second lock.
+    *
+    * @param other the other Terminal
+    * @return this Terminal or the other one
+    */
+    protected Terminal firstLock(Terminal other) {
+        return _key.compareTo(other._key) <= 0 ? this : other;
+    }
+
+    /**
+    * @param other the other Terminal
+    * @return the Terminal locked second by an operation on this and another
+    */
+    protected Terminal secondLock(Terminal other) {
+        return firstLock(other) == this ? other : this;
+    }
+
     /**
      * Pays a Communication started by this Terminal
      * 
@@ -353,17 +667,27 @@ abstract public class Terminal implements Serializable {
      * @throws InvalidCommunicationPayment if the Communication doesn't belong to this Terminal's
      *                                     sent Communications or is already paid
      */
-    public void payCommunication(Integer idComm, Network context)
+    public synchronized void payCommunication(Integer idComm, Network context)
                                 throws InvalidCommunicationPayment {
-        Communication c = getUnpaidCommunicationById(idComm);
-        _debtBalance -= c.getPrice();
-        _paidBalance += c.getPrice();
-        c.setPaid();
+        synchronized(_owner.getOperationLock()) {
+            Lock operation = context.getOperationLock();
+            operation.lock();
+            try {
+                context.getJournal().logPayment(_key, idComm);
+                Communication c = getUnpaidCommunicationById(idComm);
+                changeBalance(c.getPrice(), -c.getPrice(), context);
+                c.setPaid();
+                _unpaidCommunications.remove(idComm);
 
-        _owner.pay();
-        
-        // flag Network data as dirty
-        context.setDirty();
+                _owner.pay();
+            
+                // flag Network data as dirty
+                context.setDirty(c);
+                context.setDirty(this);
+            } finally {
+                operation.unlock();
+            }
+        }
     }
     
     /**
@@ -379,20 +703,18 @@ abstract public class Terminal implements Serializable {
     */
     @Override
     public String toString() {
-        Set<String> friendSet;
         String friendsString = "";
         // if Terminal has friends, compose a string with friend's keys
         if(!_friends.isEmpty()) {
-            friendSet = _friends.keySet();
-            friendsString = String.join(",", friendSet);
+            friendsString = String.join(",", _friends);
         }
         
         return
             _key + "|" +
             _owner.getKey() + "|" +
             _state + "|" +
-            (int) Math.round(_paidBalance) + "|" +
-            (int) Math.round(_debtBalance) +
+            Money.round(_paidBalance) + "|" +
+            Money.round(_debtBalance) +
             (friendsString.isEmpty() ? "" : "|" + friendsString);
     }
 }
@@ -0,0 +1,289 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import prr.Network;
+import prr.NetworkManager;
+import prr.clients.Client;
+import prr.communications.Communication;
+import prr.exceptions.DuplicateTerminalKeyException;
+import prr.exceptions.InvalidCommunicationPayment;
+import prr.exceptions.SameTerminalStateException;
+import prr.exceptions.UnavailableTerminalException;
+import prr.exceptions.UnknownTerminalKeyException;
+import prr.exceptions.UnsupportedOperationException;
+import prr.storage.SnapshotListener;
+import prr.terminals.OnTerminalState;
+import prr.terminals.SilentTerminalState;
+import prr.terminals.Terminal;
+
+/**
+ * Runs operations and lookups on a Network from several threads at once
+ * and checks the Network they leave. Unlike the acceptance tests it does
+ * not go through the application; run it with
+ * {@code java -cp <classpath> tests/ConcurrencyCheck.java}.
+ * <p>
+ * The Network is saved over and over while the operations run, in the
+ * foreground and in the background, and the saved file must then hold the
+ * same Network. The operations then run again on the Network loaded, whose
+ * entities are decoded as they are first used. After each run, the totals
+ * and the indexes the Network keeps up to date, among them the friendship
+ * graph changed by friends added and removed during lookups, must match
+ * its Terminals and Clients.
+ */
+public class ConcurrencyCheck {
+
+    /** Number of Clients and Terminals registered before the operations */
+    private static final int CLIENTS = 16, TERMINALS = 32;
+
+    /** Threads running operations, and operations each one runs */
+    private static final int THREADS = 8, STEPS = 4000;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("prr-check");
+        checkSaves(dir.resolve("foreground.dat").toString(), false);
+        checkSaves(dir.resolve("background.dat").toString(), true);
+        System.out.println("OK");
+    }
+
+    /**
+     * Saves a Network over and over while the operations run, then loads
+     * it, twice: once for a new Network and once for the Network loaded
+     */
+    private static void checkSaves(String filename, boolean background) throws Exception {
+        NetworkManager manager = new NetworkManager();
+        register(manager.getNetwork());
+        manager.saveAs(filename);
+        for(int round = 1; round <= 2; round++) {
+            manager.setBackgroundSaves(background);
+            AtomicInteger snapshots = new AtomicInteger();
+            manager.setSnapshotListener(new SnapshotListener() {
+                @Override
+                public void snapshotCompleted(String name, long size) {
+                    snapshots.incrementAndGet();
+                }
+            });
+            int saves = runSaving(manager);
+            checkNetwork(manager.getNetwork());
+
+            NetworkManager loaded = new NetworkManager();
+            loaded.load(filename);
+            check(dump(manager.getNetwork()).equals(dump(loaded.getNetwork())),
+                    filename + " does not hold the Network saved");
+            check(snapshots.get() > 1, filename + " was never saved while operations ran");
+            System.out.println(filename + " round " + round + ": " + saves + " saves, "
+                                + snapshots.get() + " snapshots or deltas");
+            manager = loaded;
+        }
+    }
+
+    /**
+     * Runs the operations on the Network of a manager, saving it until they
+     * are done and then once more
+     *
+     * @return number of saves while the operations ran
+     */
+    private static int runSaving(NetworkManager manager) throws Exception {
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService saver = Executors.newSingleThreadExecutor(ConcurrencyCheck::daemon);
+        Future<Integer> saves = saver.submit(() -> {
+            int count = 0;
+            while(!done.get()) {
+                manager.save();
+                count++;
+                Thread.sleep(1);
+            }
+            return count;
+        });
+        try {
+            run(manager.getNetwork());
+        } finally {
+            done.set(true);
+        }
+        int count = saves.get();
+        saver.shutdown();
+        manager.save();
+        manager.awaitSave();
+        return count;
+    }
+
+    /** Registers the Clients and Terminals the operations use */
+    private static void register(Network network) throws Exception {
+        for(int c = 0; c < CLIENTS; c++)
+            network.registerClient("c" + c, "client " + c, c);
+        for(int t = 0; t < TERMINALS; t++)
+            network.registerTerminal(Terminal.keyOf(t), "FANCY", "c" + (t % CLIENTS));
+    }
+
+    /**
+     * Runs the operations, each thread starting and ending Interactive
+     * Communications only between its own Terminals. Terminals are looked
+     * up as they are used, so a Network loaded decodes them, and drops its
+     * indexes, while the operations run.
+     */
+    private static void run(Network network) throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS, ConcurrencyCheck::daemon);
+        List<Future<?>> results = new ArrayList<>();
+        for(int i = 0; i < THREADS; i++) {
+            int thread = i;
+            results.add(threads.submit(() -> {
+                Random random = new Random(thread);
+                for(int step = 0; step < STEPS; step++) {
+                    Terminal own = network.getTerminalByKey(
+                            Terminal.keyOf(thread + THREADS * random.nextInt(TERMINALS / THREADS)));
+                    Terminal other = network.getTerminalByKey(
+                            Terminal.keyOf(thread + THREADS * random.nextInt(TERMINALS / THREADS)));
+                    Terminal any = network.getTerminalByKey(Terminal.keyOf(random.nextInt(TERMINALS)));
+                    step(network, own, other, any, random);
+                }
+                return null;
+            }));
+        }
+        for(Future<?> result : results)
+            result.get(5, TimeUnit.MINUTES);
+        threads.shutdown();
+    }
+
+    /** Runs a random operation or lookup */
+    private static void step(Network network, Terminal own, Terminal other, Terminal any,
+                                Random random) throws Exception {
+        try {
+            switch(random.nextInt(10)) {
+                case 0, 1 -> own.sendTextCommunication(any.getKey(),
+                                                "x".repeat(1 + random.nextInt(800)), network);
+                case 2 -> {
+                    if(own.canStartCommunication())
+                        own.sendInteractiveCommunication(other.getKey(),
+                                                random.nextBoolean() ? "VOICE" : "VIDEO", network);
+                }
+                case 3 -> {
+                    if(own.canEndCurrentCommunication())
+                        own.endInteractiveCommunication(1 + random.nextInt(5), network);
+                }
+                case 4 -> own.changeTerminalState(random.nextBoolean() ?
+                                OnTerminalState.INSTANCE : SilentTerminalState.INSTANCE, network);
+                case 5 -> {
+                    String key = Terminal.keyOf(random.nextInt(TERMINALS + 4));
+                    if(random.nextBoolean())
+                        own.addFriend(key, network);
+                    else
+                        own.removeFriend(key, network);
+                }
+                case 6 -> network.registerTerminal(Terminal.keyOf(100000 + random.nextInt(1000)),
+                                                random.nextBoolean() ? "BASIC" : "FANCY",
+                                                "c" + random.nextInt(CLIENTS));
+                case 7 -> {
+                    switch(random.nextInt(4)) {
+                        case 0 -> network.getTerminalsWithFriend(any);
+                        case 1 -> network.getUnusedTerminals();
+                        case 2 -> network.getClientsWithDebts();
+                        default -> network.getCommunicationsStartedByClient(any.getOwner());
+                    }
+                }
+                default -> {
+                    for(Communication c : new ArrayList<>(own.getStartedCommunications()))
+                        if(c.isFinished() && !c.isPaid()) {
+                            own.payCommunication(c.getNumber(), network);
+                            break;
+                        }
+                }
+            }
+        } catch(UnavailableTerminalException | UnknownTerminalKeyException
+                | UnsupportedOperationException | SameTerminalStateException
+                | InvalidCommunicationPayment | DuplicateTerminalKeyException e) {
+            // refused operations are journaled too
+        }
+    }
+
+    /**
+     * Checks that the totals and indexes of a Network match its Terminals
+     * and Clients
+     */
+    private static void checkNetwork(Network network) {
+        List<Terminal> terminals = new ArrayList<>(network.getAllTerminals());
+        List<Client> clients = new ArrayList<>(network.getAllClients());
+
+        long balance = 0;
+        Set<Integer> numbers = new HashSet<>();
+        List<Terminal> unused = new ArrayList<>();
+        List<Terminal> positive = new ArrayList<>();
+        for(Terminal t : terminals) {
+            balance += t.getPaidBalance() - t.getDebtBalance();
+            for(Communication c : t.getStartedCommunications())
+                check(numbers.add(c.getNumber()), "communication " + c.getNumber() + " twice");
+            if(t.getStartedCommunications().isEmpty() && t.getReceivedCommunications().isEmpty())
+                unused.add(t);
+            if(t.getPaidBalance() > t.getDebtBalance())
+                positive.add(t);
+        }
+        check(balance == network.getGlobalBalance(), "global balance");
+        check(unused.equals(new ArrayList<>(network.getUnusedTerminals())), "unused terminals");
+        check(positive.equals(new ArrayList<>(network.getTerminalsWithPositiveBalance())),
+                "terminals with positive balance");
+
+        List<Client> debts = new ArrayList<>();
+        List<Client> noDebts = new ArrayList<>();
+        for(Client c : clients) {
+            long paid = 0, debt = 0;
+            for(Terminal t : c.getTerminals()) {
+                paid += t.getPaidBalance();
+                debt += t.getDebtBalance();
+            }
+            check(paid == c.getClientPaidBalance() && debt == c.getClientDebtBalance(),
+                    "balance of client " + c.getKey());
+            (c.getClientDebtBalance() != 0 ? debts : noDebts).add(c);
+        }
+        check(debts.equals(new ArrayList<>(network.getClientsWithDebts())), "clients with debts");
+        check(noDebts.equals(new ArrayList<>(network.getClientsWithoutDebts())),
+                "clients without debts");
+
+        List<Communication> communications = new ArrayList<>(network.getAllCommunications());
+        check(communications.size() == numbers.size(), "communications");
+        for(int i = 1; i < communications.size(); i++)
+            check(communications.get(i - 1).getNumber() < communications.get(i).getNumber(),
+                    "communications out of order");
+
+        for(Terminal t : terminals) {
+            List<Terminal> friendOf = new ArrayList<>();
+            for(Terminal o : terminals)
+                if(o.isFriend(t))
+                    friendOf.add(o);
+            check(friendOf.equals(network.getTerminalsWithFriend(t)),
+                    "terminals with friend " + t.getKey());
+        }
+    }
+
+    /** @return the entities of a Network, as text */
+    private static String dump(Network network) {
+        StringBuilder text = new StringBuilder();
+        for(Client c : network.getAllClients())
+            text.append(c).append('\n');
+        for(Terminal t : network.getAllTerminals())
+            text.append(t).append('\n');
+        for(Communication c : network.getAllCommunications())
+            text.append(c).append('\n');
+        return text.append(network.getNextCommunicationNumber()).toString();
+    }
+
+    /** @return a daemon thread, so a failed check does not keep running */
+    private static Thread daemon(Runnable task) {
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void check(boolean condition, String message) {
+        if(!condition)
+            throw new AssertionError(message);
+    }
+}